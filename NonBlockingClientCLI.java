@@ -0,0 +1,100 @@
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import nbtcp.ReverseClient;
+
+// 命令行客户端，供批处理任务使用，传输逻辑与图形界面共用 ReverseClient
+// 用法：java NonBlockingClientCLI <Server IP> <Server Port> <Lmin> <Lmax> [-w 在途块数] [-p 并行文件数] [-o 输出目录] [-c 压缩级别 0-9] [-r] 文件...
+public class NonBlockingClientCLI {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 5) {
+            usage();
+            return;
+        }
+        int window = 8;
+        int parallel = 4;
+        int compression_level = 0; // 0 表示不压缩
+        boolean resumable = false; // 记录续传日志，中断后再次运行只传缺少的块
+        Path output_directory = Paths.get(System.getProperty("user.dir"));
+        List<Path> files = new ArrayList<>();
+        String server_ip;
+        int server_port;
+        int lmin;
+        int lmax;
+        try {
+            server_ip = args[0];
+            server_port = Integer.parseInt(args[1]);
+            lmin = Integer.parseInt(args[2]);
+            lmax = Integer.parseInt(args[3]);
+            for (int i = 4; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-w":
+                        window = Integer.parseInt(args[++i]);
+                        break;
+                    case "-p":
+                        parallel = Integer.parseInt(args[++i]);
+                        break;
+                    case "-c":
+                        compression_level = Integer.parseInt(args[++i]);
+                        break;
+                    case "-r":
+                        resumable = true;
+                        break;
+                    case "-o":
+                        output_directory = Paths.get(args[++i]);
+                        break;
+                    default:
+                        files.add(Paths.get(args[i]));
+                        break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+            return;
+        }
+        if (server_port < 0 || server_port > 65535 || lmin <= 0 || lmax < lmin || window <= 0 || parallel <= 0
+                || compression_level < 0 || compression_level > 9 || files.isEmpty()) {
+            usage();
+            return;
+        }
+
+        ReverseClient client = new ReverseClient(new InetSocketAddress(server_ip, server_port), lmin, lmax, window, parallel, output_directory,
+                compression_level, resumable);
+        long start = System.nanoTime();
+        int failures = client.transferAll(files, new ReverseClient.Listener() {
+            @Override
+            public void onFileResumed(Path file, int completed_blocks) {
+                System.out.println(file + " 续传，之前已完成 " + completed_blocks + " 块。");
+            }
+
+            @Override
+            public void onFileStarted(Path file, int num_blocks) {
+                System.out.println(file + " 开始传输，共 " + num_blocks + " 块。");
+            }
+
+            @Override
+            public void onFileCompleted(Path file, Path output) {
+                System.out.println(file + " 文件传输完成：" + output);
+            }
+
+            @Override
+            public void onFileFailed(Path file, Exception cause) {
+                System.out.println(file + " 传输失败：" + cause.getMessage());
+            }
+        });
+        long elapsed_ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println((files.size() - failures) + "/" + files.size() + " 个文件传输完成，用时 " + elapsed_ms + " ms。");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("用法：java NonBlockingClientCLI <Server IP> <Server Port> <Lmin> <Lmax> [-w 在途块数] [-p 并行文件数] [-o 输出目录] [-c 压缩级别 0-9] [-r] 文件...");
+        System.exit(2);
+    }
+}
@@ -1,167 +1,948 @@
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
-
-
-public class NonBlockingServer {
-
-    private static final int PORT = 8888; // 服务器监听的端口
-    private static final int BUFFER_LENGTH = 1024;
-
-    public static void main(String[] args) {
-        // 使用 try-with-resources 语句自动关闭资源
-        try (Selector selector = Selector.open();
-             //创建一个ServerSocketChannel，这是一个可以监听新进来的TCP连接的通道
-             ServerSocketChannel server_socket_channel = ServerSocketChannel.open()) {
-            // 绑定端口
-            server_socket_channel.bind(new InetSocketAddress(PORT));
-            // 配置为非阻塞模式
-            server_socket_channel.configureBlocking(false);
-            // 将通道注册到选择器，监听接收事件
-            server_socket_channel.register(selector, SelectionKey.OP_ACCEPT);
-            System.out.println("服务器启动，监听端口：" + PORT);
-
-            // 主循环，处理就绪的通道
-            while (true) {
-                // 阻塞等待至少有一个通道准备好进行 I/O 操作
-                selector.select();
-
-                // 获取准备好的通道的键集
-                Set<SelectionKey> selected_keys = selector.selectedKeys();
-                Iterator<SelectionKey> iterator = selected_keys.iterator();
-
-                // 遍历每个键并处理相应的事件
-                while (iterator.hasNext()) {
-                    SelectionKey key = iterator.next();
-                    if (key.isAcceptable()) {
-                        // 处理新连接事件
-                        handleAccept(key);
-                    } else if (key.isReadable()) {
-                        // 处理读事件
-                        handleRead(key);
-                    }
-                    // 移除已处理的键，避免重复处理
-                    iterator.remove();
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    // 处理新连接
-    private static void handleAccept(SelectionKey key) throws IOException {
-        // 从SelectionKey中获取与此键关联的Channel，并将其转换为ServerSocketChannel
-        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
-        // 接受新的客户端连接，并返回与客户端通讯的SocketChannel
-        SocketChannel socketChannel = serverSocketChannel.accept();
-        // 将新接受的SocketChannel配置为非阻塞模式
-        socketChannel.configureBlocking(false);
-        // 将SocketChannel注册到选择器，并指定对读操作感兴趣
-        socketChannel.register(key.selector(), SelectionKey.OP_READ);
-        // 获取客户端的地址和端口，并打印出来
-        System.out.println("Accepted connection from " + socketChannel.getRemoteAddress());
-    }
-
-
-    private static void handleRead(SelectionKey key) {
-        // 从SelectionKey中获取对应的SocketChannel，这个通道用于网络通信
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        // 分配一个指定大小的ByteBuffer，用于存放从通道中读取的数据
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
-
-        try {
-            // 从SocketChannel中读取数据到ByteBuffer中，并返回读取的字节数
-            int bytesRead = socketChannel.read(buffer);
-            if (bytesRead > 0) {
-                // 将缓冲区转换为读模式
-                buffer.flip();
-                short type = buffer.getShort();
-                switch (type) {
-                    case 1: // Initialization 报文
-                        handleInitialization(socketChannel, buffer);
-                        break;
-                    case 3: // reverseRequest 报文
-                        handleReverseRequest(socketChannel, buffer);
-                        break;
-                    default:
-                        // 如果报文类型不是已知的类型，则不做任何处理
-                        break;
-                }
-            } else if (bytesRead == -1) {
-                // 如果读取到的字节数为-1，表示对方已经关闭了连接
-                System.out.println("关闭连接：" + socketChannel.getRemoteAddress());
-                // 关闭SocketChannel
-                socketChannel.close();
-                // 取消SelectionKey，这样Selector就不会再监控这个通道的任何操作了
-                key.cancel();
-            }
-        } catch (IOException e) {
-            System.out.println("读取过程中发生异常：" + e.getMessage());
-            // 取消SelectionKey，这样Selector就不会再监控这个通道的任何操作了
-            key.cancel();
-        }
-    }
-
-
-
-
-    // 处理 Initialization 报文
-    private static void handleInitialization(SocketChannel socket_channel, ByteBuffer buffer) throws IOException {
-        int num_blocks = buffer.getInt(); // 获取块数
-        System.out.println("接收到 Initialization 报文，将要接收的块数：" + num_blocks);
-
-        // 发送 agree 报文
-        ByteBuffer agree_buffer = ByteBuffer.allocate(2 + 3);
-        agree_buffer.putShort((short) 2); // Type
-        agree_buffer.flip();
-        socket_channel.write(agree_buffer);
-    }
-
-    // 处理 reverseRequest 报文
-    // 处理反转请求的函数
-    private static void handleReverseRequest(SocketChannel socket_channel, ByteBuffer buffer) throws IOException {
-        // 获取远程客户端的地址信息
-        InetSocketAddress remote_address = (InetSocketAddress) socket_channel.getRemoteAddress();
-        String remote_ip = remote_address.getAddress().getHostAddress(); // 获取远程客户端的IP地址
-        int remote_port = remote_address.getPort(); // 获取远程客户端的端口号
-
-        // 解析接收到的报文
-        int length = buffer.getInt(); // 获取数据长度
-        int block_no = buffer.getInt(); // 获取块编号
-        byte[] data = new byte[length]; // 分配字节数组用于存储数据
-        buffer.get(data); // 从缓冲区中读取数据
-
-        // 打印接收到的反转请求报文信息
-        System.out.println("接收到来自 " + remote_ip + ":" + remote_port + " 的 reverseRequest 报文，第" + block_no + "块: " +  new String(data));
-
-        // 反转数据
-        byte[] reversed_data = reverseData(data); // 调用反转数据的函数
-        // 打印即将发送的反转回答报文信息
-        System.out.println("将要向 " + remote_ip + ":" + remote_port + " 发送 reverseAnswer 报文，第" + block_no + "块: " + new String(reversed_data));
-
-        // 构造反转回答报文
-        ByteBuffer answer_buffer = ByteBuffer.allocate(10 + reversed_data.length); // 分配缓冲区大小为10字节头部加上反转后的数据长度
-        answer_buffer.putShort((short) 4); // 消息类型，类型4表示反转回答
-        answer_buffer.putInt(reversed_data.length); // 数据长度
-        answer_buffer.putInt(block_no); // 块编号
-        answer_buffer.put(reversed_data); // 反转后的数据
-        answer_buffer.flip(); // 切换缓冲区为读模式
-        socket_channel.write(answer_buffer); // 发送反转回答报文
-    }
-
-    // 用于反转字节数组中的数据
-    private static byte[] reverseData(byte[] data) {
-        byte[] reversed_data = new byte[data.length];
-        for (int i = 0; i < data.length; i++) {
-            reversed_data[i] = data[data.length - 1 - i];
-        }
-        return reversed_data;
-    }
-}
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nbtcp.BlockCodec;
+import nbtcp.BufferPool;
+import nbtcp.FrameDecoder;
+import nbtcp.FrameEncoder;
+import nbtcp.Log;
+import nbtcp.MetricsEndpoint;
+import nbtcp.ReverseCache;
+import nbtcp.ServerMetrics;
+import nbtcp.TimingWheel;
+import nbtcp.TransferSession;
+
+
+public class NonBlockingServer {
+
+    private static final int DEFAULT_PORT = 8888; // 服务器默认监听的端口
+    // 监听地址，逗号分隔的 host:port 列表，host 省略时监听所有地址，例如 -Dnbtcp.listen=:8888,127.0.0.1:9000
+    private static final String LISTEN = System.getProperty("nbtcp.listen", ":" + DEFAULT_PORT);
+    // 每个监听套接字的 accept 队列长度
+    private static final int BACKLOG = Integer.getInteger("nbtcp.backlog", 1024);
+    // 是否用 SO_REUSEPORT 为每个 reactor 打开独立的监听套接字，由内核在它们之间分配新连接
+    // 只有 Linux 会把新连接分配到同一端口的各个监听套接字上，macOS 和 BSD 虽然支持这个选项，却总是交给其中一个，
+    // 所以默认只在 Linux 上开启；未开启或系统不支持时退回到由主线程 accept 再分发
+    private static final boolean REUSE_PORT = Boolean.parseBoolean(System.getProperty("nbtcp.reusePort",
+            String.valueOf(System.getProperty("os.name", "").startsWith("Linux"))));
+    // reactor 一次可接受事件中最多 accept 的连接数，避免连接风暴期间已有连接长时间得不到处理
+    private static final int REACTOR_ACCEPT_BATCH = 256;
+    private static final int BUFFER_LENGTH = 1024;
+    // worker reactor 线程数，默认等于 CPU 核数，可通过 -Dnbtcp.workers=N 配置
+    private static final int WORKER_COUNT = Integer.getInteger("nbtcp.workers", Runtime.getRuntime().availableProcessors());
+    // 待发送数据超过高水位时暂停读取该客户端，降到低水位以下再恢复
+    private static final int WRITE_HIGH_WATER_MARK = Integer.getInteger("nbtcp.writeHighWaterMark", 1024 * 1024);
+    private static final int WRITE_LOW_WATER_MARK = WRITE_HIGH_WATER_MARK / 2;
+    private static final int MAX_GATHER_BUFFERS = 16; // 一次 write 最多聚合的缓冲区个数
+    // 每个 reactor 的缓冲区池最多保留的空闲直接内存
+    private static final long POOL_MAX_BYTES = Long.getLong("nbtcp.poolMaxBytes", 64L * 1024 * 1024);
+    // 是否跟踪借出的缓冲区以发现重复归还和泄漏
+    private static final boolean POOL_LEAK_DETECTION = Boolean.parseBoolean(System.getProperty("nbtcp.poolLeakDetection", "true"));
+    // 指标抓取端点的地址和端口，端口为 0 时不启动；默认只监听本机
+    private static final String METRICS_ADDRESS = System.getProperty("nbtcp.metricsAddress", "127.0.0.1");
+    private static final int METRICS_PORT = Integer.getInteger("nbtcp.metricsPort", 9888);
+    // 一次传输允许的最大块数，传输状态按块数预先分配，超过的 Initialization 直接拒绝
+    private static final int MAX_BLOCKS_PER_TRANSFER = Integer.getInteger("nbtcp.maxBlocksPerTransfer", 1 << 24);
+    // 超时设置，单位毫秒，0 表示不限制
+    // 空闲超时：既没有读到也没有写出任何数据
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("nbtcp.idleTimeoutMs", 300_000));
+    // 读超时：传输尚未收齐或收到半个报文，而客户端停止发送
+    private static final long READ_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("nbtcp.readTimeoutMs", 60_000));
+    // 写超时：有待发送的数据，但客户端一直不接收
+    private static final long WRITE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("nbtcp.writeTimeoutMs", 60_000));
+    // 时间轮的精度和槽位数，超时的触发最多晚一个 tick
+    private static final long TIMER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("nbtcp.timerTickMs", 100));
+    private static final int TIMER_WHEEL_SLOTS = 512;
+    // 重新压缩反转结果使用的 Deflater 级别，1 最快；0 表示不接受客户端的压缩请求
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("nbtcp.compressionLevel", 1);
+    // 每个 reactor 的反转结果缓存最多占用的直接内存，0 表示不缓存
+    private static final long REVERSE_CACHE_BYTES = Long.getLong("nbtcp.reverseCacheBytes", 0);
+
+    // 当前存活的连接，只用于导出每个连接的指标
+    private static final Set<Connection> live_connections = ConcurrentHashMap.newKeySet();
+    private static final ServerMetrics metrics = new ServerMetrics(live_connections);
+
+    public static void main(String[] args) {
+        List<InetSocketAddress> listen_addresses;
+        try {
+            listen_addresses = parseListenAddresses(LISTEN);
+        } catch (IllegalArgumentException e) {
+            Log.error("监听地址不合法：" + e.getMessage());
+            Log.shutdown();
+            System.exit(1);
+            return;
+        }
+        // 压缩级别在第一个压缩连接到来时才使用，启动时就检查，避免在 reactor 线程中抛出异常
+        if (COMPRESSION_LEVEL < 0 || COMPRESSION_LEVEL > 9) {
+            Log.error("压缩级别不合法：" + COMPRESSION_LEVEL + "，nbtcp.compressionLevel 必须在 0 到 9 之间");
+            Log.shutdown();
+            System.exit(1);
+            return;
+        }
+        boolean reuse_port = REUSE_PORT && supportsReusePort();
+
+        // 创建 worker reactor，每个 reactor 拥有独立的 Selector 和线程
+        // 使用 SO_REUSEPORT 时每个 reactor 在每个监听地址上各有一个监听套接字，自己接受连接
+        Reactor[] reactors = new Reactor[Math.max(1, WORKER_COUNT)];
+        try {
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new Reactor();
+                if (reuse_port) {
+                    for (InetSocketAddress address : listen_addresses) {
+                        reactors[i].listen(openListener(address, true));
+                    }
+                }
+            }
+            for (int i = 0; i < reactors.length; i++) {
+                new Thread(reactors[i], "reactor-" + i).start();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // 指标通过 JMX 和独立端口上的纯文本端点导出
+        metrics.start();
+        if (METRICS_PORT > 0) {
+            try {
+                new MetricsEndpoint(metrics, new InetSocketAddress(METRICS_ADDRESS, METRICS_PORT)).start();
+            } catch (IOException e) {
+                Log.warn("指标端点启动失败：" + e.getMessage());
+            }
+        }
+        // 退出时打印各 reactor 缓冲区池的使用情况，leased 不为 0 说明存在泄漏
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (int i = 0; i < reactors.length; i++) {
+                // 缓存中的数据也是从池中借出的，计入 leased
+                Log.info("reactor-" + i + " " + reactors[i].buffer_pool
+                        + (reactors[i].reverse_cache != null ? " " + reactors[i].reverse_cache : ""));
+            }
+            Log.shutdown();
+        }));
+
+        if (reuse_port) {
+            Log.info("服务器启动，监听地址：" + listen_addresses + "，worker reactor 数：" + reactors.length
+                    + "，每个 reactor 使用 SO_REUSEPORT 独立 accept");
+            return; // reactor 线程不是守护线程，主线程可以直接结束
+        }
+
+        // 使用 try-with-resources 语句自动关闭资源
+        // 主线程只作为 acceptor，负责接受所有监听地址上的连接并分发给 worker reactor
+        try (Selector selector = Selector.open()) {
+            for (InetSocketAddress address : listen_addresses) {
+                // 将通道注册到选择器，监听接收事件
+                openListener(address, false).register(selector, SelectionKey.OP_ACCEPT);
+            }
+            Log.info("服务器启动，监听地址：" + listen_addresses + "，worker reactor 数：" + reactors.length);
+
+            // 主循环，处理就绪的通道
+            while (true) {
+                // 阻塞等待至少有一个通道准备好进行 I/O 操作
+                selector.select();
+
+                // 获取准备好的通道的键集
+                Set<SelectionKey> selected_keys = selector.selectedKeys();
+                Iterator<SelectionKey> iterator = selected_keys.iterator();
+
+                // 遍历每个键并处理相应的事件
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    if (key.isAcceptable()) {
+                        // 处理新连接事件
+                        handleAccept(key, reactors);
+                    }
+                    // 移除已处理的键，避免重复处理
+                    iterator.remove();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 解析 host:port 列表，IPv6 地址写成 [::1]:8888，host 为空时监听所有地址
+    private static List<InetSocketAddress> parseListenAddresses(String spec) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int colon = item.lastIndexOf(':');
+            String host = colon < 0 ? "" : item.substring(0, colon);
+            int port;
+            try {
+                port = Integer.parseInt(colon < 0 ? item : item.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(item);
+            }
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException(item);
+            }
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            addresses.add(host.isEmpty() || host.equals("*") ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+        }
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException(spec);
+        }
+        return addresses;
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // 打开一个非阻塞的监听套接字
+    private static ServerSocketChannel openListener(InetSocketAddress address, boolean reuse_port) throws IOException {
+        //创建一个ServerSocketChannel，这是一个可以监听新进来的TCP连接的通道
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reuse_port) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            // 绑定地址，并指定 accept 队列长度
+            channel.bind(address, BACKLOG);
+            // 配置为非阻塞模式
+            channel.configureBlocking(false);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // 处理新连接：一次可接受事件中持续 accept，直到没有等待的连接
+    private static void handleAccept(SelectionKey key, Reactor[] reactors) {
+        // 从SelectionKey中获取与此键关联的Channel，并将其转换为ServerSocketChannel
+        ServerSocketChannel server_socket_channel = (ServerSocketChannel) key.channel();
+        SocketChannel socket_channel;
+        while ((socket_channel = accept(server_socket_channel)) != null) {
+            long accepted_nanos = System.nanoTime();
+            if (configureAccepted(socket_channel)) {
+                // 交给当前负载最小的 reactor，由它在自己的线程中注册读事件
+                selectReactor(reactors).assign(new PendingChannel(socket_channel, accepted_nanos));
+            }
+        }
+    }
+
+    // 接受一个连接，没有等待的连接或 accept 失败（例如文件描述符耗尽）时返回 null，等下一次可接受事件再试
+    private static SocketChannel accept(ServerSocketChannel server_socket_channel) {
+        try {
+            return server_socket_channel.accept();
+        } catch (IOException e) {
+            Log.warn("accept 失败：" + e.getMessage());
+            return null;
+        }
+    }
+
+    // 把新接受的连接配置为非阻塞模式，失败时关闭它
+    private static boolean configureAccepted(SocketChannel socket_channel) {
+        metrics.connections_accepted.increment();
+        try {
+            socket_channel.configureBlocking(false);
+            // 获取客户端的地址和端口，并打印出来
+            Log.info("Accepted connection from " + socket_channel.getRemoteAddress());
+            return true;
+        } catch (IOException e) {
+            Log.warn("配置新连接时发生异常：" + e.getMessage());
+            metrics.connections_closed.increment();
+            try {
+                socket_channel.close();
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+    }
+
+    private static int next_reactor = 0; // 只在 acceptor 线程中访问
+
+    // 选择连接数最少的 reactor，从轮询位置开始扫描，负载相同时按轮询分配
+    private static Reactor selectReactor(Reactor[] reactors) {
+        int start = next_reactor;
+        next_reactor = (next_reactor + 1) % reactors.length;
+        Reactor best = reactors[start];
+        for (int i = 1; i < reactors.length; i++) {
+            Reactor candidate = reactors[(start + i) % reactors.length];
+            if (candidate.connectionCount() < best.connectionCount()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    // 已接受、等待 reactor 注册的连接，记录接受时间用于统计交接延迟
+    private static final class PendingChannel {
+        final SocketChannel socket_channel;
+        final long accepted_nanos;
+
+        PendingChannel(SocketChannel socket_channel, long accepted_nanos) {
+            this.socket_channel = socket_channel;
+            this.accepted_nanos = accepted_nanos;
+        }
+    }
+
+    // worker reactor：独立的 Selector 循环，负责分配给它的连接的读、反转和写
+    private static final class Reactor implements Runnable {
+        private final Selector selector;
+        // acceptor 线程交过来、尚未注册到 selector 的连接
+        private final Queue<PendingChannel> pending_channels = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger connection_count = new AtomicInteger();
+        // 本 reactor 所有连接共用的缓冲区池，只在 reactor 线程中使用
+        private final BufferPool buffer_pool = new BufferPool(POOL_MAX_BYTES, POOL_LEAK_DETECTION);
+        // 本 reactor 所有连接的超时定时器，由 select 的超时推进
+        private final TimingWheel<Connection> timers = new TimingWheel<>(TIMER_TICK_NANOS, TIMER_WHEEL_SLOTS, System.nanoTime());
+        // 本 reactor 所有连接共用的反转结果缓存，未开启时为 null
+        private final ReverseCache reverse_cache = REVERSE_CACHE_BYTES > 0 ? new ReverseCache(buffer_pool, REVERSE_CACHE_BYTES) : null;
+        // 本 reactor 自己的监听套接字，线程退出时关闭，内核不再把新连接分给它
+        private final List<ServerSocketChannel> listeners = new ArrayList<>();
+
+        Reactor() throws IOException {
+            selector = Selector.open();
+        }
+
+        int connectionCount() {
+            return connection_count.get();
+        }
+
+        // 在 reactor 线程启动前调用，注册本 reactor 自己的监听套接字
+        void listen(ServerSocketChannel server_socket_channel) throws IOException {
+            listeners.add(server_socket_channel);
+            server_socket_channel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        // 在 reactor 线程中接受自己监听套接字上的连接，直接注册，不经过 acceptor
+        private void handleAccept(SelectionKey key) {
+            ServerSocketChannel server_socket_channel = (ServerSocketChannel) key.channel();
+            SocketChannel socket_channel;
+            for (int i = 0; i < REACTOR_ACCEPT_BATCH && (socket_channel = accept(server_socket_channel)) != null; i++) {
+                long accepted_nanos = System.nanoTime();
+                if (configureAccepted(socket_channel)) {
+                    connection_count.incrementAndGet();
+                    register(socket_channel, accepted_nanos);
+                }
+            }
+        }
+
+        // 由 acceptor 线程调用，唤醒 selector 以便尽快注册新连接
+        void assign(PendingChannel pending) {
+            connection_count.incrementAndGet();
+            pending_channels.offer(pending);
+            selector.wakeup();
+        }
+
+        // 在 reactor 线程中注册新连接，Selector 的注册必须避免与 select() 竞争
+        private void registerPendingChannels() {
+            PendingChannel pending;
+            while ((pending = pending_channels.poll()) != null) {
+                register(pending.socket_channel, pending.accepted_nanos);
+            }
+        }
+
+        // 为新连接创建状态并注册读事件，调用前 connection_count 已经计入这个连接
+        private void register(SocketChannel socket_channel, long accepted_nanos) {
+            try {
+                Connection connection = new Connection(socket_channel, buffer_pool, timers, reverse_cache);
+                connection.key = socket_channel.register(selector, SelectionKey.OP_READ, connection);
+                live_connections.add(connection);
+                connection.rearmTimeout(System.nanoTime());
+                metrics.accept_latency.record(System.nanoTime() - accepted_nanos);
+            } catch (IOException e) {
+                Log.warn("注册连接时发生异常：" + e.getMessage());
+                connection_count.decrementAndGet();
+                metrics.connections_closed.increment();
+                try {
+                    socket_channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    // 有定时器时最多等到下一个 tick，没有连接时无限等待
+                    selector.select(timers.millisUntilNextTick(System.nanoTime()));
+                    registerPendingChannels();
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        // 移除已处理的键，避免重复处理
+                        iterator.remove();
+                        if (key.isValid() && key.isAcceptable()) {
+                            // 本 reactor 自己的监听套接字上有新连接
+                            try {
+                                handleAccept(key);
+                            } catch (RuntimeException e) {
+                                Log.error("接受连接时发生异常：" + e);
+                            }
+                            continue;
+                        }
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                // 处理写事件，继续发送积压的数据
+                                handleWrite(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                // 处理读事件
+                                handleRead(key);
+                            }
+                        } catch (RuntimeException e) {
+                            // 一个连接上的意外异常只关闭这个连接，不能结束整个 reactor
+                            Connection connection = (Connection) key.attachment();
+                            Log.error("处理 " + connection.remote_address + " 时发生异常，关闭连接", e);
+                            if (key.isValid()) {
+                                closeConnection(key);
+                            }
+                        }
+                        if (!key.isValid()) {
+                            // 连接已关闭，更新负载计数
+                            connection_count.decrementAndGet();
+                        }
+                    }
+                    timers.advance(System.nanoTime(), this::checkTimeout);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.error(Thread.currentThread().getName() + " 异常退出", e);
+            } finally {
+                for (ServerSocketChannel listener : listeners) {
+                    try {
+                        listener.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        // 连接的定时器到期，重新检查各项超时，确实超时的连接被驱逐，否则按新的截止时间重新调度
+        private void checkTimeout(Connection connection) {
+            long now = System.nanoTime();
+            String reason = connection.expiredTimeout(now);
+            if (reason == null) {
+                connection.rearmTimeout(now);
+                return;
+            }
+            Log.info("驱逐连接：" + connection.remote_address + "，" + reason);
+            metrics.connections_evicted.increment();
+            closeConnection(connection.key);
+            connection_count.decrementAndGet();
+        }
+    }
+
+
+    private static void handleRead(SelectionKey key) {
+        // 从SelectionKey中获取对应的SocketChannel，这个通道用于网络通信
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        // 每个连接的解码器保存着跨读事件的半帧数据
+        Connection connection = (Connection) key.attachment();
+
+        try {
+            long start_nanos = System.nanoTime();
+            // 从SocketChannel中读取数据到连接的读缓冲区中，并返回读取的字节数
+            int bytesRead = connection.decoder.readFrom(socketChannel);
+            if (bytesRead > 0) {
+                connection.last_read_nanos = start_nanos;
+                connection.bytes_in += bytesRead;
+                metrics.bytes_in.add(bytesRead);
+                // 解码所有完整的 Initialization / reverseRequest 报文，回答先放入发送队列
+                connection.decoder.decode(connection);
+                metrics.read_latency.record(System.nanoTime() - start_nanos);
+                // 把本次产生的所有回答聚合成一次写出
+                connection.flush();
+                connection.rearmTimeout(System.nanoTime());
+            } else if (bytesRead == -1) {
+                // 如果读取到的字节数为-1，表示对方已经关闭了连接
+                Log.info("关闭连接：" + connection.remote_address);
+                closeConnection(key);
+            }
+        } catch (IOException e) {
+            Log.warn("读取过程中发生异常：" + connection.remote_address + " " + e.getMessage());
+            closeConnection(key);
+        }
+    }
+
+    // 处理写事件
+    private static void handleWrite(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            connection.flush();
+            connection.rearmTimeout(System.nanoTime());
+        } catch (IOException e) {
+            Log.warn("写入过程中发生异常：" + connection.remote_address + " " + e.getMessage());
+            closeConnection(key);
+        }
+    }
+
+    // 关闭连接，未发送的数据直接丢弃
+    private static void closeConnection(SelectionKey key) {
+        // 取消SelectionKey，这样Selector就不会再监控这个通道的任何操作了
+        key.cancel();
+        // 把连接持有的缓冲区都还给池
+        Connection connection = (Connection) key.attachment();
+        connection.release();
+        if (live_connections.remove(connection)) {
+            metrics.connections_closed.increment();
+        }
+        try {
+            // 关闭SocketChannel
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 每个连接的状态，作为 SelectionKey 的 attachment
+    private static final class Connection implements FrameDecoder.Handler, ServerMetrics.ConnectionStats {
+        private final SocketChannel socket_channel;
+        private final String remote_address; // 日志用的客户端地址
+        private final BufferPool pool;
+        private final ReverseCache reverse_cache; // 可能为 null
+        private final FrameDecoder decoder;
+        private SelectionKey key;
+        // 当前传输的状态，收到 Initialization 时创建，所有块的回答写出后释放
+        private TransferSession session;
+        // 当前传输协商的块压缩编码，编解码器在第一次协商压缩时创建，连接关闭时释放
+        private int codec = BlockCodec.NONE;
+        private BlockCodec block_codec;
+        // 超时定时器，活动时只更新时间戳，截止时间提前时才在时间轮中移动
+        private final TimingWheel<Connection> timers;
+        private final TimingWheel.Timeout<Connection> timeout = new TimingWheel.Timeout<>(this);
+        private long last_read_nanos = System.nanoTime(); // 最近一次读到数据的时间
+        private long last_write_nanos = last_read_nanos; // 最近一次写出数据，或发送队列由空变为非空的时间
+
+        // 待发送的报文，OP_WRITE 只在队列非空时注册
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER_BUFFERS];
+        private long outbound_bytes; // 队列中尚未发送的字节数
+        private boolean read_paused; // 是否因积压过多而暂停了 OP_READ
+        // 与 outbound 一一对应的环形数组，记录每个报文对应的请求被解码的时间
+        private long[] decoded_nanos = new long[MAX_GATHER_BUFFERS];
+        // 同样与 outbound 一一对应，直接从反转结果缓存发送的数据对应缓存条目，其他为 null
+        private ReverseCache.Entry[] cached_entries = new ReverseCache.Entry[MAX_GATHER_BUFFERS];
+        private int decoded_nanos_head;
+        private int continued_block_no; // 已写出报文头、数据还在发送队列中的回答的块编号
+
+        // 每个连接的计数，只在 reactor 线程中更新
+        private final long created_millis = System.currentTimeMillis();
+        private long bytes_in;
+        private long bytes_out;
+        private long messages_in;
+        private long messages_out;
+
+        Connection(SocketChannel socket_channel, BufferPool pool, TimingWheel<Connection> timers, ReverseCache reverse_cache)
+                throws IOException {
+            this.socket_channel = socket_channel;
+            this.reverse_cache = reverse_cache;
+            this.timers = timers;
+            InetSocketAddress address = (InetSocketAddress) socket_channel.getRemoteAddress();
+            this.remote_address = address.getAddress().getHostAddress() + ":" + address.getPort();
+            this.pool = pool;
+            this.decoder = new FrameDecoder(pool, BUFFER_LENGTH);
+        }
+
+        @Override
+        public void onInitialization(int num_blocks) throws IOException {
+            messages_in++;
+            metrics.messages_in.increment();
+            handleInitialization(this, num_blocks, BlockCodec.NONE, 0, false, System.nanoTime());
+        }
+
+        @Override
+        public void onExtendedInitialization(int num_blocks, int codec, long transfer_id) throws IOException {
+            messages_in++;
+            metrics.messages_in.increment();
+            handleInitialization(this, num_blocks, codec, transfer_id, true, System.nanoTime());
+        }
+
+        @Override
+        public void onResume(long transfer_id, int num_blocks, int codec, int completed_prefix,
+                             ByteBuffer buffer, int bitmap_offset, int bitmap_length) throws IOException {
+            messages_in++;
+            metrics.messages_in.increment();
+            handleResume(this, transfer_id, num_blocks, codec, completed_prefix, buffer, bitmap_offset, bitmap_length, System.nanoTime());
+        }
+
+        @Override
+        public void onReverseRequest(int block_no, ByteBuffer buffer, int offset, int length) throws IOException {
+            messages_in++;
+            metrics.messages_in.increment();
+            handleReverseRequest(this, block_no, buffer, offset, length, System.nanoTime());
+        }
+
+        // 将处于读模式、从池中借出的缓冲区加入发送队列，实际发送由 flush 完成，发送完后归还给池
+        // decoded_at 是对应请求被解码的时间，用于统计回答的延迟
+        void enqueue(ByteBuffer buffer, long decoded_at) {
+            enqueue(buffer, null, decoded_at);
+        }
+
+        // 反转结果缓存命中：先发送池中的报文头，再直接发送缓存中的数据，发送完后解除钉住
+        void enqueueCached(ByteBuffer header, ReverseCache.Entry entry, long decoded_at) {
+            enqueue(header, decoded_at);
+            enqueue(entry.view(), entry, decoded_at);
+        }
+
+        private void enqueue(ByteBuffer buffer, ReverseCache.Entry entry, long decoded_at) {
+            int size = outbound.size();
+            if (size == decoded_nanos.length) {
+                long[] larger = new long[size * 2];
+                ReverseCache.Entry[] larger_entries = new ReverseCache.Entry[size * 2];
+                for (int i = 0; i < size; i++) {
+                    larger[i] = decoded_nanos[(decoded_nanos_head + i) & (size - 1)];
+                    larger_entries[i] = cached_entries[(decoded_nanos_head + i) & (size - 1)];
+                }
+                decoded_nanos = larger;
+                cached_entries = larger_entries;
+                decoded_nanos_head = 0;
+            }
+            int tail = (decoded_nanos_head + size) & (decoded_nanos.length - 1);
+            decoded_nanos[tail] = decoded_at;
+            cached_entries[tail] = entry;
+            if (size == 0) {
+                last_write_nanos = decoded_at; // 写超时从有数据待发送时开始计算
+            }
+            outbound.addLast(buffer);
+            outbound_bytes += buffer.remaining();
+        }
+
+        // 发送队列头部的报文已完全写出，记录它的延迟并把缓冲区还给池
+        private void completeFirst(long now) {
+            ByteBuffer buffer = outbound.removeFirst();
+            long latency = now - decoded_nanos[decoded_nanos_head];
+            ReverseCache.Entry entry = cached_entries[decoded_nanos_head];
+            cached_entries[decoded_nanos_head] = null;
+            decoded_nanos_head = (decoded_nanos_head + 1) & (decoded_nanos.length - 1);
+            int block_no;
+            if (entry != null) {
+                // 缓存中的数据发送完，这个回答才算完成
+                reverse_cache.release(entry);
+                block_no = continued_block_no;
+            } else {
+                // 其他发送缓冲区都从报文头开始，第一个字段就是类型
+                short type = buffer.getShort(0);
+                if (type == FrameDecoder.TYPE_AGREE || type == FrameDecoder.TYPE_EXTENDED_AGREE) {
+                    pool.release(buffer);
+                    metrics.agree_latency.record(latency);
+                    messages_out++;
+                    metrics.messages_out.increment();
+                    return;
+                }
+                // reverseAnswer 的块编号在类型和长度之后
+                block_no = buffer.getInt(6);
+                boolean header_only = buffer.limit() < FrameDecoder.REVERSE_HEADER_LENGTH + buffer.getInt(2);
+                pool.release(buffer);
+                if (header_only) {
+                    continued_block_no = block_no; // 只有报文头，数据在队列中的下一项
+                    return;
+                }
+            }
+            metrics.answer_latency.record(latency);
+            if (session != null && session.markAnswered(block_no)) {
+                completeSession();
+            }
+            messages_out++;
+            metrics.messages_out.increment();
+        }
+
+        // 本次传输的所有块都已回答，释放传输状态，连接可以开始下一次传输
+        private void completeSession() {
+            if (Log.isDebugEnabled()) {
+                Log.debug(remote_address + " 的传输完成，共 " + session.numBlocks() + " 块，耗时 "
+                        + (System.nanoTime() - session.startedNanos()) / 1_000_000 + " ms"
+                        + (session.transferId() != 0 ? "，传输 ID：" + Long.toHexString(session.transferId()) : ""));
+            }
+            session = null;
+        }
+
+        // 尽可能多地发送队列中的数据，发送缓冲区满时注册 OP_WRITE 等待下次可写
+        void flush() throws IOException {
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : outbound) {
+                    gather[count++] = buffer;
+                    if (count == gather.length) {
+                        break;
+                    }
+                }
+                long start_nanos = System.nanoTime();
+                long written = socket_channel.write(gather, 0, count);
+                long now = System.nanoTime();
+                metrics.write_latency.record(now - start_nanos);
+                outbound_bytes -= written;
+                if (written > 0) {
+                    last_write_nanos = now;
+                }
+                bytes_out += written;
+                metrics.bytes_out.add(written);
+                while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+                    completeFirst(now);
+                }
+                if (written == 0) {
+                    break; // 内核发送缓冲区已满
+                }
+            }
+            updateInterestOps();
+        }
+
+        // 归还读缓冲区和所有未发送的缓冲区
+        void release() {
+            decoder.release();
+            ByteBuffer buffer;
+            while ((buffer = outbound.pollFirst()) != null) {
+                ReverseCache.Entry entry = cached_entries[decoded_nanos_head];
+                if (entry != null) {
+                    cached_entries[decoded_nanos_head] = null;
+                    reverse_cache.release(entry);
+                } else {
+                    pool.release(buffer);
+                }
+                decoded_nanos_head = (decoded_nanos_head + 1) & (decoded_nanos.length - 1);
+            }
+            outbound_bytes = 0;
+            session = null;
+            timers.cancel(timeout);
+            if (block_codec != null) {
+                block_codec.end();
+                block_codec = null;
+            }
+        }
+
+        // 返回已经超时的原因，没有超时返回 null
+        String expiredTimeout(long now) {
+            if (WRITE_TIMEOUT_NANOS > 0 && !outbound.isEmpty() && now - last_write_nanos >= WRITE_TIMEOUT_NANOS) {
+                return "写超时，仍有 " + outbound_bytes + " 字节未发送";
+            }
+            if (READ_TIMEOUT_NANOS > 0 && awaitingRead() && now - last_read_nanos >= READ_TIMEOUT_NANOS) {
+                return session != null
+                        ? "读超时，已收到 " + session.receivedCount() + "/" + session.numBlocks() + " 块"
+                        : "读超时，收到半个报文";
+            }
+            if (IDLE_TIMEOUT_NANOS > 0 && now - Math.max(last_read_nanos, last_write_nanos) >= IDLE_TIMEOUT_NANOS) {
+                return "空闲超时";
+            }
+            return null;
+        }
+
+        // 回答都已发出、而传输还没收齐或解码器中有半个报文时，连接在等客户端发送
+        // 因积压暂停读取时不计读超时，由写超时处理
+        private boolean awaitingRead() {
+            return outbound.isEmpty() && !read_paused
+                    && ((session != null && session.receivedCount() < session.numBlocks()) || decoder.pendingBytes() > 0);
+        }
+
+        // 按当前状态计算最近的截止时间，比已调度的更早时才重新调度，更晚时留到定时器触发再检查
+        void rearmTimeout(long now) {
+            long deadline = Long.MAX_VALUE;
+            if (WRITE_TIMEOUT_NANOS > 0 && !outbound.isEmpty()) {
+                deadline = Math.min(deadline, last_write_nanos + WRITE_TIMEOUT_NANOS);
+            }
+            if (READ_TIMEOUT_NANOS > 0 && awaitingRead()) {
+                deadline = Math.min(deadline, last_read_nanos + READ_TIMEOUT_NANOS);
+            }
+            if (IDLE_TIMEOUT_NANOS > 0) {
+                deadline = Math.min(deadline, Math.max(last_read_nanos, last_write_nanos) + IDLE_TIMEOUT_NANOS);
+            }
+            if (deadline == Long.MAX_VALUE) {
+                timers.cancel(timeout);
+            } else if (!timeout.isScheduled() || deadline < timeout.deadlineNanos()) {
+                timers.schedule(timeout, Math.max(deadline, now));
+            }
+        }
+
+        @Override
+        public String remoteAddress() {
+            return remote_address;
+        }
+
+        @Override
+        public long createdMillis() {
+            return created_millis;
+        }
+
+        @Override
+        public long bytesIn() {
+            return bytes_in;
+        }
+
+        @Override
+        public long bytesOut() {
+            return bytes_out;
+        }
+
+        @Override
+        public long messagesIn() {
+            return messages_in;
+        }
+
+        @Override
+        public long messagesOut() {
+            return messages_out;
+        }
+
+        @Override
+        public int blocksExpected() {
+            TransferSession current = session;
+            return current == null ? 0 : current.numBlocks();
+        }
+
+        @Override
+        public int blocksAnswered() {
+            TransferSession current = session;
+            return current == null ? 0 : current.answeredCount();
+        }
+
+        // 根据发送队列的状态调整关注的事件
+        private void updateInterestOps() {
+            int ops = key.interestOps();
+            if (outbound.isEmpty()) {
+                ops &= ~SelectionKey.OP_WRITE;
+            } else {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!read_paused && outbound_bytes > WRITE_HIGH_WATER_MARK) {
+                // 客户端接收太慢，暂停读取它的请求，避免发送队列无限增长
+                read_paused = true;
+                ops &= ~SelectionKey.OP_READ;
+            } else if (read_paused && outbound_bytes <= WRITE_LOW_WATER_MARK) {
+                read_paused = false;
+                ops |= SelectionKey.OP_READ;
+            }
+            if (ops != key.interestOps()) {
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    // 处理 Initialization 报文
+    // 按块数预先分配本次传输的状态，块数不合法或上一次传输尚未完成时抛出 ProtocolException 关闭连接
+    // extended 表示客户端发送的是带选项的 Initialization，回复带选项的 agree 告诉它服务器接受的压缩编码
+    private static void handleInitialization(Connection connection, int num_blocks, int codec, long transfer_id, boolean extended,
+                                             long decoded_at) throws ProtocolException {
+        if (Log.isDebugEnabled()) {
+            Log.debug("接收到来自 " + connection.remote_address + " 的 Initialization 报文，将要接收的块数：" + num_blocks
+                    + "，请求的压缩编码：" + codec + (transfer_id != 0 ? "，传输 ID：" + Long.toHexString(transfer_id) : ""));
+        }
+        if (num_blocks < 0 || num_blocks > MAX_BLOCKS_PER_TRANSFER) {
+            throw new ProtocolException("块数不合法：" + num_blocks);
+        }
+        if (connection.session != null) {
+            throw new ProtocolException("上一次传输尚未完成，已回答 " + connection.session.answeredCount()
+                    + "/" + connection.session.numBlocks() + " 块");
+        }
+        // 空文件没有块，不需要传输状态
+        if (num_blocks > 0) {
+            connection.session = new TransferSession(num_blocks, transfer_id);
+        }
+
+        // 只接受认识的压缩编码，其他的按不压缩处理
+        connection.codec = codec == BlockCodec.DEFLATE && COMPRESSION_LEVEL > 0 ? BlockCodec.DEFLATE : BlockCodec.NONE;
+        if (connection.codec != BlockCodec.NONE && connection.block_codec == null) {
+            connection.block_codec = new BlockCodec(COMPRESSION_LEVEL);
+        }
+
+        // 发送 agree 报文
+        connection.enqueue(extended ? FrameEncoder.extendedAgree(connection.pool, connection.codec) : FrameEncoder.agree(connection.pool),
+                decoded_at);
+    }
+
+    // 处理续传报文：与 Initialization 相同地建立传输状态，再把客户端已完成的块标记为已回答，之后只会收到缺少的块
+    private static void handleResume(Connection connection, long transfer_id, int num_blocks, int codec, int completed_prefix,
+                                     ByteBuffer buffer, int bitmap_offset, int bitmap_length, long decoded_at) throws ProtocolException {
+        handleInitialization(connection, num_blocks, codec, transfer_id, true, decoded_at);
+        metrics.transfers_resumed.increment();
+        TransferSession session = connection.session;
+        if (session == null) {
+            return; // 空文件
+        }
+        session.markCompletedThrough(completed_prefix);
+        for (int i = 0; i < bitmap_length; i++) {
+            int bits = buffer.get(bitmap_offset + i) & 0xFF;
+            while (bits != 0) {
+                session.markCompleted(completed_prefix + 1 + i * 8 + Integer.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        Log.info(connection.remote_address + " 续传 " + Long.toHexString(transfer_id) + "，已完成 " + session.answeredCount()
+                + "/" + num_blocks + " 块");
+        if (session.isComplete()) {
+            connection.completeSession();
+        }
+    }
+
+    // 处理 reverseRequest 报文
+    // 处理反转请求的函数
+    // 日志默认关闭时这里不拼接任何字符串
+    private static void handleReverseRequest(Connection connection, int block_no, ByteBuffer buffer, int offset, int length, long decoded_at) throws ProtocolException {
+        // 块必须属于当前传输，且编号在范围内、没有重复
+        if (connection.session == null) {
+            throw new ProtocolException("收到第" + block_no + "块，但没有进行中的传输");
+        }
+        connection.session.markReceived(block_no);
+
+        // 打印接收到的反转请求报文信息，数据内容只在开启并采样到时输出，压缩的数据不输出
+        boolean log_payload = connection.codec == BlockCodec.NONE && Log.shouldLogPayload();
+        if (Log.isDebugEnabled()) {
+            Log.debug("接收到来自 " + connection.remote_address + " 的 reverseRequest 报文，第" + block_no + "块，长度 " + length
+                    + (log_payload ? ": " + Log.text(buffer, offset, length) : ""));
+        }
+
+        // 开启了反转结果缓存时先查缓存，命中就直接发送缓存中的数据，不再反转
+        ReverseCache cache = connection.reverse_cache;
+        boolean use_cache = cache != null && connection.codec == BlockCodec.NONE && cache.isCacheable(length);
+        long hash = 0;
+        if (use_cache) {
+            hash = ReverseCache.hash(buffer, offset, length);
+            ReverseCache.Entry entry = cache.lookup(hash, buffer, offset, length);
+            if (entry != null) {
+                metrics.reverse_cache_hits.increment();
+                metrics.reverse_latency.record(System.nanoTime() - decoded_at);
+                if (log_payload) {
+                    Log.debug("将要向 " + connection.remote_address + " 发送 reverseAnswer 报文（缓存命中），第" + block_no + "块: "
+                            + Log.text(entry.view(), 0, length));
+                }
+                connection.enqueueCached(FrameEncoder.reverseAnswerHeader(connection.pool, block_no, length), entry, decoded_at);
+                return;
+            }
+            metrics.reverse_cache_misses.increment();
+        }
+
+        // 构造反转回答报文，数据直接从读缓冲区反转写入池中借出的发送缓冲区
+        // 协商了压缩时先解压，反转后再压缩
+        ByteBuffer answer_buffer = connection.codec == BlockCodec.NONE
+                ? FrameEncoder.reverseAnswer(connection.pool, block_no, buffer, offset, length)
+                : FrameEncoder.reverseAnswer(connection.pool, block_no, buffer, offset, length, connection.block_codec);
+        if (use_cache) {
+            cache.admit(hash, answer_buffer, FrameDecoder.REVERSE_HEADER_LENGTH, length);
+        }
+        metrics.reverse_latency.record(System.nanoTime() - decoded_at);
+
+        // 打印即将发送的反转回答报文信息
+        if (log_payload) {
+            Log.debug("将要向 " + connection.remote_address + " 发送 reverseAnswer 报文，第" + block_no + "块: "
+                    + Log.text(answer_buffer, FrameDecoder.REVERSE_HEADER_LENGTH, length));
+        }
+
+        connection.enqueue(answer_buffer, decoded_at); // 放入发送队列，随后统一发送
+    }
+}
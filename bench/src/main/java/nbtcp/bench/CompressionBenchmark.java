@@ -0,0 +1,125 @@
+package nbtcp.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nbtcp.BlockCodec;
+import nbtcp.BufferPool;
+import nbtcp.FrameDecoder;
+import nbtcp.FrameEncoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 一个块的完整往返：客户端压缩、服务器解压反转再压缩、客户端解压，对比不压缩时的反转
+// 辅助计数器给出每次操作的线路字节数（请求 + 回答的数据部分），与耗时一起衡量压缩的收益和代价
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"4096", "65536", "1048576"})
+    public int blockSize;
+
+    // 0 表示不压缩
+    @Param({"0", "1", "6"})
+    public int level;
+
+    // text 是模拟的访问日志，random 是不可压缩的随机数据
+    @Param({"text", "random"})
+    public String data;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireBytes {
+        public long wireBytes;
+        public long rawBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            rawBytes = 0;
+        }
+    }
+
+    private BufferPool pool;
+    private BlockCodec client_codec;
+    private BlockCodec server_codec;
+    private ByteBuffer block; // 客户端的原始块
+    private ByteBuffer request; // 客户端编码后的块
+    private ByteBuffer output; // 客户端解码后的回答
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new BufferPool(64L * 1024 * 1024, false);
+        if (level > 0) {
+            client_codec = new BlockCodec(level);
+            server_codec = new BlockCodec(level);
+        }
+        byte[] bytes = new byte[blockSize];
+        Random random = new Random(42);
+        if (data.equals("text")) {
+            StringBuilder text = new StringBuilder(blockSize + 128);
+            for (int i = 0; text.length() < blockSize; i++) {
+                text.append("2026-10-17 12:").append(i % 60).append(" INFO [worker-").append(i % 8).append("] request id=")
+                        .append(random.nextInt(1_000_000)).append(" path=/api/v1/items status=")
+                        .append(random.nextInt(10) == 0 ? 500 : 200).append(" latency=").append(random.nextInt(900)).append("ms\n");
+            }
+            System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, bytes, 0, blockSize);
+        } else {
+            random.nextBytes(bytes);
+        }
+        block = ByteBuffer.allocateDirect(blockSize).put(bytes).flip();
+        request = ByteBuffer.allocateDirect(BlockCodec.maxEncodedLength(blockSize));
+        output = ByteBuffer.allocateDirect(blockSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (level > 0) {
+            client_codec.end();
+            server_codec.end();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(WireBytes counters) throws Exception {
+        ByteBuffer answer;
+        int request_length;
+        if (level == 0) {
+            request_length = blockSize;
+            answer = FrameEncoder.reverseAnswer(pool, 1, block, 0, blockSize);
+        } else {
+            request.clear();
+            request_length = client_codec.encode(block, 0, blockSize, request);
+            answer = FrameEncoder.reverseAnswer(pool, 1, request, 0, request_length, server_codec);
+        }
+        int answer_length = answer.remaining() - FrameDecoder.REVERSE_HEADER_LENGTH;
+        output.clear();
+        if (level == 0) {
+            output.put(0, answer, FrameDecoder.REVERSE_HEADER_LENGTH, answer_length);
+        } else {
+            client_codec.decode(answer, FrameDecoder.REVERSE_HEADER_LENGTH, answer_length, output);
+        }
+        pool.release(answer);
+        counters.wireBytes += request_length + answer_length;
+        counters.rawBytes += 2L * blockSize;
+        return answer_length;
+    }
+}
@@ -0,0 +1,114 @@
+package nbtcp.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nbtcp.BufferPool;
+import nbtcp.FrameDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// 帧解码：模拟一次读事件读到 readSize 字节的 reverseRequest 流（可能包含多个帧，也可能只有半个帧），然后解码
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+    @Param({"16", "256", "1024", "16384"})
+    public int blockSize;
+
+    @Param({"1024", "65536"})
+    public int readSize;
+
+    private BufferPool pool;
+    private FrameDecoder decoder;
+    private WireChannel channel;
+    private Handler handler;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        // 准备足够多的帧组成循环的字节流
+        int frames = Math.max(64, 4 * readSize / (FrameDecoder.REVERSE_HEADER_LENGTH + blockSize));
+        ByteBuffer wire = ByteBuffer.allocate(frames * (FrameDecoder.REVERSE_HEADER_LENGTH + blockSize));
+        byte[] data = new byte[blockSize];
+        new Random(42).nextBytes(data);
+        for (int i = 0; i < frames; i++) {
+            wire.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(blockSize).putInt(i + 1).put(data);
+        }
+        pool = new BufferPool(64L * 1024 * 1024, false);
+        decoder = new FrameDecoder(pool, readSize);
+        channel = new WireChannel(wire.array(), readSize);
+        handler = new Handler(blackhole);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        decoder.release();
+    }
+
+    @Benchmark
+    public void readAndDecode() throws Exception {
+        decoder.readFrom(channel);
+        decoder.decode(handler);
+    }
+
+    private static final class Handler implements FrameDecoder.Handler {
+        private final Blackhole blackhole;
+
+        Handler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onReverseRequest(int block_no, ByteBuffer buffer, int offset, int length) {
+            blackhole.consume(block_no);
+            blackhole.consume(buffer.get(offset));
+        }
+    }
+
+    // 循环输出固定字节流的通道，每次最多读出 read_size 字节
+    private static final class WireChannel implements ReadableByteChannel {
+        private final byte[] wire;
+        private final int read_size;
+        private int position;
+
+        WireChannel(byte[] wire, int read_size) {
+            this.wire = wire;
+            this.read_size = read_size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int length = Math.min(Math.min(read_size, dst.remaining()), wire.length - position);
+            dst.put(wire, position, length);
+            position = (position + length) % wire.length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nbtcp.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nbtcp.BufferPool;
+import nbtcp.FrameDecoder;
+import nbtcp.FrameEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// reverseAnswer 编码：从读缓冲区反转写入池中的发送缓冲区
+// legacy 是最初 handleReverseRequest 的写法：拷贝出 byte[]，反转到新数组，再放入新分配的堆缓冲区
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncoderBenchmark {
+
+    @Param({"16", "256", "1014", "16384", "1048576"})
+    public int blockSize;
+
+    private BufferPool pool;
+    private ByteBuffer request; // 模拟读缓冲区中的一个 reverseRequest 帧
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new BufferPool(64L * 1024 * 1024, false);
+        byte[] data = new byte[blockSize];
+        new Random(42).nextBytes(data);
+        request = ByteBuffer.allocateDirect(FrameDecoder.REVERSE_HEADER_LENGTH + blockSize);
+        request.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(blockSize).putInt(1).put(data).clear();
+    }
+
+    @Benchmark
+    public int pooled() {
+        ByteBuffer answer = FrameEncoder.reverseAnswer(pool, 1, request, FrameDecoder.REVERSE_HEADER_LENGTH, blockSize);
+        int remaining = answer.remaining();
+        pool.release(answer);
+        return remaining;
+    }
+
+    @Benchmark
+    public ByteBuffer legacy() {
+        byte[] data = new byte[blockSize];
+        request.get(FrameDecoder.REVERSE_HEADER_LENGTH, data);
+        byte[] reversed_data = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            reversed_data[i] = data[data.length - 1 - i];
+        }
+        ByteBuffer answer_buffer = ByteBuffer.allocate(10 + reversed_data.length);
+        answer_buffer.putShort((short) 4);
+        answer_buffer.putInt(reversed_data.length);
+        answer_buffer.putInt(1);
+        answer_buffer.put(reversed_data);
+        answer_buffer.flip();
+        return answer_buffer;
+    }
+}
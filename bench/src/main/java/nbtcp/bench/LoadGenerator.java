@@ -0,0 +1,310 @@
+package nbtcp.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import nbtcp.BufferPool;
+import nbtcp.FrameDecoder;
+import nbtcp.LatencyHistogram;
+
+// 不依赖界面的压测工具：打开大量并发连接，每条连接循环执行 Initialization -> agree -> reverseRequest 流程
+// 每条连接最多有 window 个块在途，块大小按 [lmin, lmax] 上的分布生成，报告吞吐和 reverseRequest 的往返延迟分位数
+//
+// 参数（--名称=值）：
+//   --host=127.0.0.1 --port=8888       服务器地址
+//   --connections=1000 --threads=4      连接数和驱动这些连接的线程数
+//   --duration=30 --warmup=5            测量时长和预热时长（秒），预热期间不记录
+//   --lmin=64 --lmax=1014               块大小范围
+//   --dist=uniform                      块大小分布：uniform（同客户端）、exponential、fixed（固定为 lmax）
+//   --blocks=100                        每次传输（一个 Initialization）包含的块数
+//   --window=1                          每条连接同时在途的块数
+//   --verify=false                      是否逐字节校验反转结果
+public final class LoadGenerator {
+
+    private final InetSocketAddress server_address;
+    private final int connections;
+    private final int threads;
+    private final int duration_seconds;
+    private final int warmup_seconds;
+    private final int lmin;
+    private final int lmax;
+    private final String distribution;
+    private final int blocks_per_transfer;
+    private final int window;
+    private final boolean verify;
+
+    private final byte[] payload; // 所有块的数据都取自这个数组的随机位置
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder payload_bytes = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        server_address = new InetSocketAddress(options.getOrDefault("host", "127.0.0.1"), intOption(options, "port", 8888));
+        connections = intOption(options, "connections", 1000);
+        threads = intOption(options, "threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        duration_seconds = intOption(options, "duration", 30);
+        warmup_seconds = intOption(options, "warmup", 5);
+        lmin = intOption(options, "lmin", 64);
+        lmax = intOption(options, "lmax", 1014);
+        distribution = options.getOrDefault("dist", "uniform");
+        blocks_per_transfer = intOption(options, "blocks", 100);
+        window = intOption(options, "window", 1);
+        verify = Boolean.parseBoolean(options.getOrDefault("verify", "false"));
+        if (lmin <= 0 || lmax < lmin || window < 1 || blocks_per_transfer < 1 || connections < 1 || threads < 1) {
+            throw new IllegalArgumentException("参数不合法：" + options);
+        }
+        if (!distribution.equals("uniform") && !distribution.equals("exponential") && !distribution.equals("fixed")) {
+            throw new IllegalArgumentException("未知的块大小分布：" + distribution);
+        }
+        payload = new byte[lmax * 2];
+        new SplittableRandom(42).nextBytes(payload);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("参数格式为 --名称=值：" + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private static int intOption(Map<String, String> options, String name, int default_value) {
+        String value = options.get(name);
+        return value == null ? default_value : Integer.parseInt(value);
+    }
+
+    private void run() throws Exception {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int count = connections / threads + (i < connections % threads ? 1 : 0);
+            Worker worker = new Worker(count, new SplittableRandom(i));
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.start();
+            workers.add(thread);
+        }
+        TimeUnit.SECONDS.sleep(warmup_seconds);
+        long start = System.nanoTime();
+        measuring = true;
+        TimeUnit.SECONDS.sleep(duration_seconds);
+        measuring = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        report(seconds);
+    }
+
+    private void report(double seconds) {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("连接数 %d，线程数 %d，块大小 %s[%d, %d]，每条连接在途 %d 块，测量 %.1f 秒%n",
+                connections, threads, distribution, lmin, lmax, window, seconds);
+        System.out.printf("reverseRequest：%d 个，%.0f 个/秒，单向数据 %.2f MB/s，完成传输 %d 次，错误 %d%n",
+                messages.sum(), messages.sum() / seconds, payload_bytes.sum() / seconds / 1e6, transfers.sum(), errors.sum());
+        System.out.printf("往返延迟（微秒）：p50=%.1f p99=%.1f p999=%.1f max=%.1f mean=%.1f%n",
+                snapshot.valueAtQuantile(0.5) / 1e3, snapshot.valueAtQuantile(0.99) / 1e3,
+                snapshot.valueAtQuantile(0.999) / 1e3, snapshot.max() / 1e3, snapshot.mean() / 1e3);
+    }
+
+    private int nextBlockSize(SplittableRandom random) {
+        switch (distribution) {
+            case "fixed":
+                return lmax;
+            case "exponential":
+                // 均值取区间中点，超出 lmax 的截断
+                double mean = (lmax - lmin) / 2.0;
+                return lmin + (int) Math.min(lmax - lmin, -Math.log(1 - random.nextDouble()) * mean);
+            default:
+                return lmin + random.nextInt(lmax - lmin + 1);
+        }
+    }
+
+    // 每个线程用一个 Selector 驱动分配给它的连接
+    private final class Worker implements Runnable {
+        private final int count;
+        private final SplittableRandom random;
+        private final BufferPool pool = new BufferPool(64L * 1024 * 1024, false);
+
+        Worker(int count, SplittableRandom random) {
+            this.count = count;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (int i = 0; i < count; i++) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    LoadConnection connection = new LoadConnection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                    channel.connect(server_address);
+                }
+                while (running) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        LoadConnection connection = (LoadConnection) key.attachment();
+                        try {
+                            connection.handle();
+                        } catch (IOException e) {
+                            errors.increment();
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    ((LoadConnection) key.attachment()).close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // 一条压测连接的状态机
+    private final class LoadConnection implements FrameDecoder.Handler {
+        private final SocketChannel channel;
+        private final Worker worker;
+        private final FrameDecoder decoder;
+        private final ByteBuffer out;
+        private SelectionKey key;
+
+        // 在途块的环形队列，服务器按请求顺序回答，队头就是下一个回答对应的块
+        private final long[] sent_nanos;
+        private final int[] payload_offsets;
+        private final int[] lengths;
+        private int head;
+        private int in_flight;
+
+        private boolean awaiting_agree;
+        private int sent_in_transfer;
+        private int answered_in_transfer;
+
+        LoadConnection(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+            this.decoder = new FrameDecoder(worker.pool, 64 * 1024);
+            this.out = ByteBuffer.allocate(FrameDecoder.INITIALIZATION_LENGTH + window * (FrameDecoder.REVERSE_HEADER_LENGTH + lmax));
+            this.sent_nanos = new long[window];
+            this.payload_offsets = new int[window];
+            this.lengths = new int[window];
+        }
+
+        void handle() throws IOException {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                startTransfer();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                if (decoder.readFrom(channel) == -1) {
+                    throw new IOException("服务器关闭了连接");
+                }
+                decoder.decode(this);
+                flush();
+            }
+        }
+
+        private void startTransfer() throws IOException {
+            sent_in_transfer = 0;
+            answered_in_transfer = 0;
+            awaiting_agree = true;
+            out.putShort(FrameDecoder.TYPE_INITIALIZATION).putInt(blocks_per_transfer);
+            flush();
+        }
+
+        @Override
+        public void onAgree() {
+            awaiting_agree = false;
+            fillWindow();
+        }
+
+        // 在窗口允许的范围内继续放入 reverseRequest
+        private void fillWindow() {
+            while (!awaiting_agree && in_flight < window && sent_in_transfer < blocks_per_transfer) {
+                int length = nextBlockSize(worker.random);
+                int offset = worker.random.nextInt(payload.length - length + 1);
+                sent_in_transfer++;
+                out.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(length).putInt(sent_in_transfer).put(payload, offset, length);
+                int tail = (head + in_flight) % window;
+                sent_nanos[tail] = System.nanoTime();
+                payload_offsets[tail] = offset;
+                lengths[tail] = length;
+                in_flight++;
+            }
+        }
+
+        @Override
+        public void onReverseAnswer(int block_no, ByteBuffer buffer, int offset, int length) throws IOException {
+            if (in_flight == 0 || length != lengths[head]) {
+                throw new ProtocolException("回答与请求不匹配，块 " + block_no);
+            }
+            long now = System.nanoTime();
+            if (verify) {
+                int source = payload_offsets[head] + length - 1;
+                for (int i = 0; i < length; i++) {
+                    if (buffer.get(offset + i) != payload[source - i]) {
+                        throw new ProtocolException("反转结果不正确，块 " + block_no);
+                    }
+                }
+            }
+            if (measuring) {
+                latency.record(now - sent_nanos[head]);
+                messages.increment();
+                payload_bytes.add(length);
+            }
+            head = (head + 1) % window;
+            in_flight--;
+            answered_in_transfer++;
+            if (answered_in_transfer == blocks_per_transfer) {
+                if (measuring) {
+                    transfers.increment();
+                }
+                startTransfer();
+            } else {
+                fillWindow();
+            }
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void close() {
+            key.cancel();
+            decoder.release();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package nbtcp.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nbtcp.ReverseKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 各种反转实现在 16 B 到 1 MiB 块大小下的对比
+// byteArrayCopy 是最初 NonBlockingServer.reverseData 的写法：先拷贝出 byte[]，再逐字节反转到新数组
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReverseKernelBenchmark {
+
+    @Param({"16", "64", "256", "1024", "4096", "16384", "65536", "262144", "1048576"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    private ByteBuffer src;
+    private ByteBuffer dst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        src = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        dst = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        src.put(data).clear();
+        verify();
+    }
+
+    // 确认 long 宽度的实现与逐字节反转的结果逐字节一致
+    private void verify() {
+        ByteBuffer expected = ByteBuffer.allocate(size);
+        ReverseKernel.reverseScalar(src, 0, size, expected);
+        dst.clear();
+        ReverseKernel.reverse(src, 0, size, dst);
+        if (!expected.flip().equals(dst.flip())) {
+            throw new IllegalStateException("ReverseKernel.reverse 结果与逐字节反转不一致，size=" + size);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(size).put(src.duplicate().clear());
+        ReverseKernel.reverseInPlace(copy, 0, size);
+        if (!expected.rewind().equals(copy.flip())) {
+            throw new IllegalStateException("ReverseKernel.reverseInPlace 结果与逐字节反转不一致，size=" + size);
+        }
+    }
+
+    @Benchmark
+    public byte[] byteArrayCopy() {
+        byte[] data = new byte[size];
+        src.get(0, data);
+        byte[] reversed_data = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            reversed_data[i] = data[data.length - 1 - i];
+        }
+        return reversed_data;
+    }
+
+    @Benchmark
+    public ByteBuffer scalar() {
+        dst.clear();
+        ReverseKernel.reverseScalar(src, 0, size, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public ByteBuffer longWide() {
+        dst.clear();
+        ReverseKernel.reverse(src, 0, size, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public ByteBuffer longWideInPlace() {
+        ReverseKernel.reverseInPlace(src, 0, size);
+        return src;
+    }
+}
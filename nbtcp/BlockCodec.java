@@ -0,0 +1,111 @@
+package nbtcp;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 块数据的压缩编码，在 Initialization / agree 中协商后，reverseRequest 和 reverseAnswer 的数据部分都使用这种格式：
+// 原始长度（4 字节） + 数据。数据长度等于原始长度时为原样存储（压缩后不比原来小），否则为 raw deflate 流
+// 持有 Deflater 和 Inflater 的本地内存，不再使用时调用 end；不是线程安全的
+public final class BlockCodec {
+
+    public static final int NONE = 0;
+    public static final int DEFLATE = 1;
+    public static final int LENGTH_PREFIX = 4;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+
+    // level 为 Deflater 的压缩级别，1 最快，9 压缩率最高
+    public BlockCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("压缩级别必须在 1 到 9 之间：" + level);
+        }
+        deflater = new Deflater(level, true);
+    }
+
+    // 编码 length 字节的数据最多需要的空间
+    public static int maxEncodedLength(int length) {
+        return LENGTH_PREFIX + length;
+    }
+
+    // 读取并检查编码数据中的原始长度
+    public static int rawLength(ByteBuffer src, int offset, int length) throws ProtocolException {
+        if (length < LENGTH_PREFIX) {
+            throw new ProtocolException("压缩块长度不合法：" + length);
+        }
+        int raw_length = src.getInt(offset);
+        if (raw_length < 0 || raw_length > FrameDecoder.MAX_BLOCK_LENGTH || length - LENGTH_PREFIX > raw_length) {
+            throw new ProtocolException("压缩块的原始长度不合法：" + raw_length + "，数据长度 " + (length - LENGTH_PREFIX));
+        }
+        return raw_length;
+    }
+
+    // 编码数据是否为原样存储，原样存储的数据从 offset + LENGTH_PREFIX 开始可以直接使用
+    public static boolean isStored(ByteBuffer src, int offset, int length) throws ProtocolException {
+        return rawLength(src, offset, length) == length - LENGTH_PREFIX;
+    }
+
+    // 把 src 的 [offset, offset + length) 编码写入 dst 的当前位置，dst 至少要有 maxEncodedLength(length) 的剩余空间
+    // 返回写入的字节数
+    public int encode(ByteBuffer src, int offset, int length, ByteBuffer dst) {
+        int start = dst.position();
+        dst.putInt(length);
+        if (length > 1) {
+            // 输出空间比原始数据少一个字节，放不下说明压缩没有收益，改为原样存储
+            ByteBuffer out = dst.slice(dst.position(), length - 1);
+            deflater.setInput(src.slice(offset, length));
+            deflater.finish();
+            while (!deflater.finished() && out.hasRemaining()) {
+                deflater.deflate(out);
+            }
+            boolean compressed = deflater.finished();
+            deflater.reset();
+            if (compressed) {
+                dst.position(dst.position() + out.position());
+                return dst.position() - start;
+            }
+        }
+        dst.put(dst.position(), src, offset, length);
+        dst.position(dst.position() + length);
+        return dst.position() - start;
+    }
+
+    // 把编码数据 src 的 [offset, offset + length) 解码写入 dst 的当前位置，返回原始长度
+    public int decode(ByteBuffer src, int offset, int length, ByteBuffer dst) throws ProtocolException {
+        int raw_length = rawLength(src, offset, length);
+        if (dst.remaining() < raw_length) {
+            throw new IllegalArgumentException("解码缓冲区不足：" + dst.remaining() + " < " + raw_length);
+        }
+        int data_length = length - LENGTH_PREFIX;
+        if (data_length == raw_length) {
+            dst.put(dst.position(), src, offset + LENGTH_PREFIX, raw_length);
+        } else {
+            ByteBuffer out = dst.slice(dst.position(), raw_length);
+            inflater.setInput(src.slice(offset + LENGTH_PREFIX, data_length));
+            try {
+                while (!inflater.finished() && out.hasRemaining()) {
+                    if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                }
+                if (!inflater.finished() || out.hasRemaining()) {
+                    throw new ProtocolException("压缩块数据不完整，原始长度 " + raw_length);
+                }
+            } catch (DataFormatException e) {
+                throw new ProtocolException("压缩块数据损坏：" + e.getMessage());
+            } finally {
+                inflater.reset();
+            }
+        }
+        dst.position(dst.position() + raw_length);
+        return raw_length;
+    }
+
+    public void end() {
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,118 @@
+package nbtcp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// 按 2 的幂分级的直接内存缓冲区池
+// 不是线程安全的：每个 reactor 持有自己的池，只在 reactor 线程中借出和归还
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 10; // 最小级别 1 KiB
+    private static final int MAX_SHIFT = 25; // 最大级别 32 MiB，更大的请求直接分配且不回收
+
+    private final ArrayDeque<ByteBuffer>[] free_lists;
+    private final long max_pooled_bytes; // 池中空闲缓冲区的总字节数上限，超出的归还直接丢弃
+    // 借出而未归还的缓冲区，用于发现重复归还和泄漏；关闭检测时为 null
+    private final Set<ByteBuffer> leased;
+
+    // 计数器，只由所属线程更新，其他线程读取到的是近似值
+    private long acquire_count;
+    private long release_count;
+    private long allocate_count; // 池中没有可用缓冲区而新分配的次数
+    private long invalid_release_count; // 重复归还或归还了不属于本池的缓冲区
+    private long leased_count;
+    private long pooled_bytes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long max_pooled_bytes, boolean leak_detection) {
+        this.max_pooled_bytes = max_pooled_bytes;
+        this.leased = leak_detection ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+        free_lists = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < free_lists.length; i++) {
+            free_lists[i] = new ArrayDeque<>();
+        }
+    }
+
+    // 借出一个容量至少为 min_capacity 的缓冲区，处于写模式，limit 等于 capacity
+    public ByteBuffer acquire(int min_capacity) {
+        acquire_count++;
+        leased_count++;
+        int index = sizeClass(min_capacity);
+        ByteBuffer buffer = null;
+        if (index < free_lists.length) {
+            buffer = free_lists[index].pollFirst();
+        }
+        if (buffer == null) {
+            allocate_count++;
+            int capacity = index < free_lists.length ? 1 << (index + MIN_SHIFT) : min_capacity;
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            pooled_bytes -= buffer.capacity();
+            buffer.clear();
+        }
+        if (leased != null) {
+            leased.add(buffer);
+        }
+        return buffer;
+    }
+
+    // 归还缓冲区，归还后调用方不能再使用它
+    public void release(ByteBuffer buffer) {
+        if (leased != null && !leased.remove(buffer)) {
+            invalid_release_count++;
+            Log.warn("BufferPool: 重复归还或归还了不属于本池的缓冲区，capacity=" + buffer.capacity());
+            return;
+        }
+        release_count++;
+        leased_count--;
+        int capacity = buffer.capacity();
+        int index = sizeClass(capacity);
+        if (index < free_lists.length && capacity == 1 << (index + MIN_SHIFT)
+                && pooled_bytes + capacity <= max_pooled_bytes) {
+            pooled_bytes += capacity;
+            free_lists[index].addFirst(buffer);
+        }
+    }
+
+    // 能容纳 capacity 字节的最小级别
+    private static int sizeClass(int capacity) {
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    public long acquireCount() {
+        return acquire_count;
+    }
+
+    public long releaseCount() {
+        return release_count;
+    }
+
+    public long allocateCount() {
+        return allocate_count;
+    }
+
+    public long invalidReleaseCount() {
+        return invalid_release_count;
+    }
+
+    // 当前借出的缓冲区个数，连接全部关闭后仍不为 0 说明有泄漏
+    public long leasedCount() {
+        return leased_count;
+    }
+
+    public long pooledBytes() {
+        return pooled_bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{acquire=" + acquire_count + ", release=" + release_count + ", allocate=" + allocate_count
+                + ", leased=" + leased_count + ", invalidRelease=" + invalid_release_count + ", pooledBytes=" + pooled_bytes + "}";
+    }
+}
@@ -0,0 +1,562 @@
+package nbtcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 通过已连接的 SocketChannel 把一个文件发给服务器反转，并把反转结果写入输出文件，不依赖界面
+// 文件从末尾向前按随机大小分块，同时最多有 window 个块在途（window 为 1 时就是一问一答）
+// 回答按块编号找到它在输出文件中的位置，乱序到达也能写到正确的位置
+// compression_level 大于 0 时在握手中请求压缩，服务器接受后块数据用 BlockCodec 编码后传输
+// 指定 journal_path 时用 TransferJournal 记录已完成的块；日志与源文件和输出文件对得上时沿用其中的种子和输出文件，
+// 用续传报文告诉服务器哪些块已完成，只发送缺少的块，块的大小和输出位置由种子重新算出，不需要保存
+public final class FileTransfer {
+
+    private static final int READ_BUFFER_LENGTH = 64 * 1024;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024; // 每次内存映射的文件区域大小
+    private static final int CHECKPOINT_INTERVAL = 256; // 每写完这么多块把输出和续传日志写回一次
+    // 握手和传输期间连续这么久没有收到服务器的数据就抛出 SocketTimeoutException，0 表示一直等待
+    // 链路静默断开时不会收到 RST，没有超时就永远等不到可以重试和续传的异常
+    private static final long PROGRESS_TIMEOUT_MS = Long.getLong("nbtcp.progressTimeoutMs", 60_000);
+
+    // 传输过程的通知，在调用 run 的线程中回调
+    public interface Listener {
+        // 续传时在 onStarted 之前回调，completed_blocks 为之前已经完成、不再发送的块数
+        default void onResumed(int completed_blocks) {
+        }
+
+        // 服务器同意后、开始发送文件块之前回调
+        default void onStarted(int num_blocks) {
+        }
+
+        // data 只在回调期间有效
+        default void onBlockAnswered(int block_no, ByteBuffer data) {
+        }
+    }
+
+    private final SocketChannel socket_channel;
+    private final Path file;
+    private final Path journal_path; // null 表示不记录续传日志
+    private final int window;
+    private final int compression_level; // 0 表示不压缩
+    // 已发送、还没有收到回答的块
+    private static final class SentBlock {
+        final long output_offset; // 回答在输出文件中的偏移
+        final int length; // 原始数据的长度，压缩时回答解码后也应是这个长度
+
+        SentBlock(long output_offset, int length) {
+            this.output_offset = output_offset;
+            this.length = length;
+        }
+    }
+
+    // 续传时以下参数改为日志中记录的值
+    private Path output;
+    private int lmin;
+    private int lmax;
+    private long seed; // 块大小由种子决定，计算块数和发送时用同一个种子重新生成
+    private long transfer_id; // 0 表示没有续传日志
+    private TransferJournal journal;
+    private boolean resuming; // 输出文件中已有之前写入的块
+
+    // 发送状态
+    private long file_size;
+    private int num_blocks;
+    private Random random;
+    private FileChannel file_channel;
+    private MappedByteBuffer map_window; // 当前映射的文件区域
+    private long map_window_start; // 映射区域在文件中的起始位置
+    private long end_index; // 还没有发送的部分的末尾
+    private int next_block_no = 1;
+    private final ByteBuffer header = ByteBuffer.allocate(FrameDecoder.REVERSE_HEADER_LENGTH); // 报文头缓冲区，每块重复使用
+    private final ByteBuffer[] message = new ByteBuffer[2]; // 报文头 + 映射区域的切片，聚合写
+    private boolean sending; // message 是否还有没写完的数据
+    private int codec = BlockCodec.NONE; // 服务器接受的压缩编码
+    private BlockCodec block_codec;
+    private ByteBuffer encoded; // 压缩时当前块编码后的数据，发送完后重复使用
+    private ByteBuffer decoded; // 压缩时回答解码后的数据
+
+    // 接收状态
+    private final Map<Integer, SentBlock> in_flight = new HashMap<>(); // 已发送未回答的块编号 -> 块的位置和长度
+    private OutputWriter output_writer;
+    private int answered;
+    private int unsaved; // 上次 checkpoint 之后写完的块数
+
+    public FileTransfer(SocketChannel socket_channel, Path file, Path output, int lmin, int lmax, int window) {
+        this(socket_channel, file, output, lmin, lmax, window, 0);
+    }
+
+    public FileTransfer(SocketChannel socket_channel, Path file, Path output, int lmin, int lmax, int window, int compression_level) {
+        this(socket_channel, file, output, lmin, lmax, window, compression_level, null);
+    }
+
+    // output 必须和 journal_path 位于同一目录
+    public FileTransfer(SocketChannel socket_channel, Path file, Path output, int lmin, int lmax, int window, int compression_level,
+                        Path journal_path) {
+        if (lmin <= 0 || lmax < lmin) {
+            throw new IllegalArgumentException("块大小范围不合法：[" + lmin + ", " + lmax + "]");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("在途块数必须大于 0：" + window);
+        }
+        if (compression_level < 0 || compression_level > 9) {
+            throw new IllegalArgumentException("压缩级别必须在 0 到 9 之间：" + compression_level);
+        }
+        this.socket_channel = socket_channel;
+        this.file = file;
+        this.output = output;
+        // 压缩编码最多比原始数据多出长度前缀，编码后的块也不能超过报文长度上限
+        this.lmax = Math.min(lmax, FrameDecoder.MAX_BLOCK_LENGTH - (compression_level > 0 ? BlockCodec.LENGTH_PREFIX : 0));
+        this.lmin = Math.min(lmin, this.lmax);
+        this.window = window;
+        this.compression_level = compression_level;
+        this.journal_path = journal_path;
+        this.seed = System.nanoTime();
+    }
+
+    // 执行传输，返回 false 表示服务器没有同意。socket_channel 必须处于阻塞模式，返回后仍为阻塞模式
+    public boolean run(Listener listener) throws IOException {
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            file_channel = input;
+            file_size = input.size();
+            if (journal_path != null) {
+                openJournal();
+            }
+            num_blocks = countBlocks();
+            if (journal_path != null && journal == null) {
+                createJournal();
+            }
+            if (resuming) {
+                sendResumeMessage();
+            } else {
+                sendInitializationMessage();
+            }
+            if (!receiveAgreeMessage()) {
+                return false;
+            }
+            if (resuming) {
+                answered = journal.completedCount();
+                listener.onResumed(answered);
+            }
+            listener.onStarted(num_blocks);
+            try (OutputWriter writer = new OutputWriter(output, file_size, resuming)) {
+                output_writer = writer;
+                try {
+                    transferBlocks(listener);
+                } finally {
+                    if (journal != null) {
+                        // 连接断开时也把已写完的块记下来，下次只重传缺少的块
+                        writer.flush();
+                        journal.checkpoint();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // 输出文件一开始就扩展到完整大小，没有续传日志时失败留下的是中间夹着空洞的文件，既不能用也无法续传
+                if (journal == null) {
+                    try {
+                        Files.deleteIfExists(output);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+            if (journal != null) {
+                journal.delete();
+                journal = null;
+            }
+            return true;
+        } finally {
+            file_channel = null;
+            output_writer = null;
+            map_window = null;
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            if (block_codec != null) {
+                block_codec.end();
+                block_codec = null;
+            }
+        }
+    }
+
+    public int numBlocks() {
+        return num_blocks;
+    }
+
+    // 输出文件，续传时是之前那次传输的输出文件
+    public Path output() {
+        return output;
+    }
+
+    // 打开已有的续传日志，源文件没有变化、输出文件还在时沿用日志中的参数，否则之后重新开始
+    private void openJournal() throws IOException {
+        TransferJournal existing = TransferJournal.open(journal_path);
+        if (existing == null) {
+            return;
+        }
+        boolean usable = existing.fileSize() == file_size
+                && existing.fileMtime() == Files.getLastModifiedTime(file).toMillis()
+                && existing.lmax() <= FrameDecoder.MAX_BLOCK_LENGTH - (compression_level > 0 ? BlockCodec.LENGTH_PREFIX : 0)
+                && Files.isRegularFile(existing.output())
+                && Files.size(existing.output()) == file_size;
+        if (!usable) {
+            existing.close();
+            return;
+        }
+        journal = existing;
+        output = existing.output();
+        lmin = existing.lmin();
+        lmax = existing.lmax();
+        seed = existing.seed();
+        transfer_id = existing.transferId();
+        resuming = true;
+    }
+
+    // 新建续传日志，日志正被其他传输使用时本次传输不记录日志
+    private void createJournal() throws IOException {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        journal = TransferJournal.create(journal_path, id, seed, file_size, Files.getLastModifiedTime(file).toMillis(), lmin, lmax,
+                num_blocks, output);
+        if (journal != null) {
+            transfer_id = id;
+        }
+    }
+
+    // 生成下一块的大小，remaining 为文件中还没有分块的字节数
+    private int nextBlockSize(Random random, long remaining) {
+        // 在 [lmin, lmax + 1) 范围内生成随机整数
+        int block_size = random.nextInt(lmax - lmin + 1) + lmin;
+        // 如果剩余的文件大小小于随机数，则调整随机数为剩余文件大小
+        if (block_size > remaining) {
+            block_size = (int) remaining;
+        }
+        return block_size;
+    }
+
+    // 计算文件要分成的块数
+    private int countBlocks() throws ProtocolException {
+        Random random = new Random(seed);
+        long remaining = file_size;
+        long count = 0;
+        while (remaining > 0) {
+            remaining -= nextBlockSize(random, remaining);
+            count++;
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new ProtocolException("块数超过 Initialization 报文的表示范围，请增大 Lmin");
+        }
+        if (journal != null && journal.numBlocks() != count) {
+            throw new ProtocolException("续传日志与重新计算的块数不一致：" + journal.numBlocks() + " != " + count);
+        }
+        return (int) count;
+    }
+
+    // 发送初始化消息，告知服务器块的数量
+    // 不压缩也没有传输 ID 时发送原来的 Initialization，兼容不认识带选项报文的服务器
+    private void sendInitializationMessage() throws IOException {
+        ByteBuffer buffer;
+        if (!extendedHandshake()) {
+            buffer = ByteBuffer.allocate(FrameDecoder.INITIALIZATION_LENGTH);
+            buffer.putShort(FrameDecoder.TYPE_INITIALIZATION); // 消息类型，类型1表示初始化消息
+            buffer.putInt(num_blocks); // 块的数量
+        } else {
+            int body_length = FrameDecoder.EXTENDED_INITIALIZATION_BODY_LENGTH + (transfer_id != 0 ? FrameDecoder.TRANSFER_ID_LENGTH : 0);
+            buffer = ByteBuffer.allocate(FrameDecoder.EXTENDED_HEADER_LENGTH + body_length);
+            buffer.putShort(FrameDecoder.TYPE_EXTENDED_INITIALIZATION); // 带选项的初始化消息
+            buffer.putInt(body_length); // 报文体长度
+            buffer.putInt(num_blocks); // 块的数量
+            buffer.put((byte) requestedCodec()); // 请求的压缩编码
+            if (transfer_id != 0) {
+                buffer.putLong(transfer_id); // 传输 ID
+            }
+        }
+        buffer.flip(); // 切换缓冲区为读模式
+        writeFully(buffer);
+    }
+
+    // 发送续传消息：连续完成的前缀块数，加上之后各块是否完成的位图，位图末尾没有完成的块省略
+    private void sendResumeMessage() throws IOException {
+        int prefix = journal.completedPrefix();
+        int last_completed = prefix;
+        for (int block_no = num_blocks; block_no > prefix; block_no--) {
+            if (journal.isCompleted(block_no)) {
+                last_completed = block_no;
+                break;
+            }
+        }
+        int bitmap_length = (last_completed - prefix + 7) >>> 3;
+        int body_length = FrameDecoder.RESUME_BODY_LENGTH + bitmap_length;
+        if (body_length > FrameDecoder.MAX_BLOCK_LENGTH) {
+            throw new ProtocolException("续传报文超过长度上限，已完成的块过于分散：" + body_length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FrameDecoder.EXTENDED_HEADER_LENGTH + body_length);
+        buffer.putShort(FrameDecoder.TYPE_RESUME); // 续传消息
+        buffer.putInt(body_length); // 报文体长度
+        buffer.putLong(transfer_id); // 传输 ID
+        buffer.putInt(num_blocks); // 块的数量
+        buffer.put((byte) requestedCodec()); // 请求的压缩编码
+        buffer.putInt(prefix); // 连续完成的前缀块数
+        int bitmap_offset = buffer.position();
+        for (int block_no = prefix + 1; block_no <= last_completed; block_no++) {
+            if (journal.isCompleted(block_no)) {
+                int i = block_no - prefix - 1;
+                int index = bitmap_offset + (i >>> 3);
+                buffer.put(index, (byte) (buffer.get(index) | (1 << (i & 7))));
+            }
+        }
+        buffer.position(buffer.limit()); // 位图已按下标写入
+        buffer.flip();
+        writeFully(buffer);
+    }
+
+    private boolean extendedHandshake() {
+        return compression_level > 0 || transfer_id != 0;
+    }
+
+    private int requestedCodec() {
+        return compression_level > 0 ? BlockCodec.DEFLATE : BlockCodec.NONE;
+    }
+
+    // 在阻塞模式下写完 buffer
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socket_channel.write(buffer);
+        }
+    }
+
+    // 接收服务器的同意消息，带选项的 agree 中包含服务器接受的压缩编码
+    private boolean receiveAgreeMessage() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameDecoder.AGREE_LENGTH);
+        if (!readFully(buffer)) {
+            return false;
+        }
+        short type = buffer.getShort(0);
+        if (type == FrameDecoder.TYPE_AGREE) {
+            return true; // 返回消息类型是否为2（表示同意）
+        }
+        if (type != FrameDecoder.TYPE_EXTENDED_AGREE || !extendedHandshake()) {
+            return false;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        if (!readFully(length)) {
+            return false;
+        }
+        int body_length = length.getInt(0);
+        if (body_length < FrameDecoder.EXTENDED_AGREE_BODY_LENGTH || body_length > FrameDecoder.MAX_EXTENDED_BODY_LENGTH) {
+            throw new ProtocolException("agree 报文长度不合法：" + body_length);
+        }
+        ByteBuffer body = ByteBuffer.allocate(body_length);
+        if (!readFully(body)) {
+            return false;
+        }
+        codec = body.get(0);
+        if (codec == BlockCodec.DEFLATE && compression_level > 0) {
+            block_codec = new BlockCodec(compression_level);
+        } else if (codec != BlockCodec.NONE) {
+            throw new ProtocolException("服务器选择了未请求的压缩编码：" + codec);
+        }
+        return true;
+    }
+
+    // 在阻塞模式下读满堆缓冲区 buffer，连接关闭时返回 false
+    // 通道的阻塞读不支持超时，改用 socket 适配器的输入流，SO_TIMEOUT 只对它生效；这个流不能关闭，否则会关闭通道
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        socket_channel.socket().setSoTimeout((int) Math.min(Integer.MAX_VALUE, PROGRESS_TIMEOUT_MS));
+        InputStream input = socket_channel.socket().getInputStream();
+        while (buffer.hasRemaining()) {
+            int n;
+            try {
+                n = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } catch (SocketTimeoutException e) {
+                throw new SocketTimeoutException(PROGRESS_TIMEOUT_MS + " ms 内没有收到服务器的 agree 消息");
+            }
+            if (n == -1) {
+                return false;
+            }
+            buffer.position(buffer.position() + n);
+        }
+        return true;
+    }
+
+    // 在非阻塞模式下同时发送文件块和接收回答，直到所有块都被回答
+    private void transferBlocks(Listener listener) throws IOException {
+        random = new Random(seed); // 与 countBlocks 相同的种子，生成相同的块大小序列
+        end_index = file_size;
+        map_window_start = file_size;
+        skipCompletedBlocks();
+        BufferPool pool = new BufferPool(0, false);
+        FrameDecoder decoder = new FrameDecoder(pool, READ_BUFFER_LENGTH);
+        if (codec != BlockCodec.NONE) {
+            encoded = pool.acquire(BlockCodec.maxEncodedLength(lmax));
+            decoded = pool.acquire(lmax);
+        }
+        FrameDecoder.Handler handler = new FrameDecoder.Handler() {
+            @Override
+            public void onReverseAnswer(int block_no, ByteBuffer buffer, int offset, int length) throws IOException {
+                writeAnswer(block_no, buffer, offset, length, listener);
+            }
+        };
+
+        socket_channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            SelectionKey key = socket_channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            long timeout_nanos = TimeUnit.MILLISECONDS.toNanos(PROGRESS_TIMEOUT_MS);
+            long last_progress_nanos = System.nanoTime(); // 最近一次收到回答数据的时间
+            while (answered < num_blocks) {
+                long wait_ms = 0;
+                if (timeout_nanos > 0) {
+                    long remaining_nanos = last_progress_nanos + timeout_nanos - System.nanoTime();
+                    if (remaining_nanos <= 0) {
+                        throw new SocketTimeoutException(PROGRESS_TIMEOUT_MS + " ms 内没有收到服务器的回答，已完成 "
+                                + answered + "/" + num_blocks + " 块");
+                    }
+                    wait_ms = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining_nanos));
+                }
+                if (selector.select(wait_ms) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear(); // 只注册了一个键，清空已选择集合，下次 select 才会更新就绪状态
+                if (key.isWritable()) {
+                    sendBlocks();
+                }
+                if (key.isReadable()) {
+                    int n = decoder.readFrom(socket_channel);
+                    if (n == -1) {
+                        throw new EOFException("服务器关闭了连接，已完成 " + answered + "/" + num_blocks + " 块");
+                    }
+                    if (n > 0) {
+                        // 大块的回答可能要多次读才完整，收到任何回答数据都算有进展
+                        last_progress_nanos = System.nanoTime();
+                    }
+                    decoder.decode(handler);
+                }
+                // 还有可以发送的块时才关注可写事件
+                boolean can_send = sending || (end_index > 0 && in_flight.size() < window);
+                key.interestOps(can_send ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        } finally {
+            decoder.release();
+            encoded = null;
+            decoded = null;
+            // Selector 关闭后通道才注销，之后才能切回阻塞模式
+            socket_channel.configureBlocking(true);
+        }
+    }
+
+    // 在窗口允许的范围内发送文件块，直到发送缓冲区满
+    private void sendBlocks() throws IOException {
+        while (true) {
+            if (!sending) {
+                if (end_index == 0 || in_flight.size() >= window) {
+                    return;
+                }
+                prepareNextBlock();
+            }
+            socket_channel.write(message); // 发送报文头和文件块数据
+            if (message[1].hasRemaining()) {
+                return; // 发送缓冲区已满，等待下一次可写
+            }
+            sending = false;
+        }
+    }
+
+    // 准备下一个块的报文：报文头加映射区域的切片，不把文件数据拷贝到堆内存
+    private void prepareNextBlock() throws IOException {
+        int block_size = nextBlockSize(random, end_index); // 获取当前块的大小
+        long start_index = end_index - block_size;
+        if (start_index < map_window_start) {
+            // 当前块不在映射区域内，映射以当前块结尾的下一个窗口
+            map_window_start = Math.max(0, end_index - Math.max(MAP_WINDOW_SIZE, block_size));
+            map_window = file_channel.map(FileChannel.MapMode.READ_ONLY, map_window_start, end_index - map_window_start);
+        }
+
+        ByteBuffer data = map_window.slice((int) (start_index - map_window_start), block_size); // 文件块数据，直接引用映射区域
+        if (codec != BlockCodec.NONE) {
+            // 压缩时把块编码到 encoded，上一块已经发送完，可以重复使用
+            encoded.clear();
+            block_codec.encode(data, 0, block_size, encoded);
+            data = encoded.flip();
+        }
+
+        header.clear();
+        header.putShort(FrameDecoder.TYPE_REVERSE_REQUEST); // 消息类型，类型3表示文件块数据
+        header.putInt(data.remaining()); // 块大小，压缩时为编码后的大小
+        header.putInt(next_block_no); // 当前块编号
+        header.flip(); // 切换缓冲区为读模式
+        message[0] = header;
+        message[1] = data;
+
+        // 文件末尾的块反转后位于输出文件开头
+        in_flight.put(next_block_no, new SentBlock(file_size - end_index, block_size));
+        end_index = start_index; // 更新文件末尾索引
+        next_block_no++;
+        sending = true;
+        skipCompletedBlocks();
+    }
+
+    // 跳过续传日志中已完成的块，仍然按顺序消耗块大小序列，后面的块大小和位置不变
+    private void skipCompletedBlocks() {
+        if (!resuming) {
+            return;
+        }
+        while (end_index > 0 && journal.isCompleted(next_block_no)) {
+            end_index -= nextBlockSize(random, end_index);
+            next_block_no++;
+        }
+    }
+
+    // 把反转数据写到输出文件中对应的位置
+    private void writeAnswer(int block_no, ByteBuffer buffer, int offset, int length, Listener listener) throws IOException {
+        if (codec != BlockCodec.NONE) {
+            // 先解码，再按原始数据写入
+            decoded.clear();
+            if (BlockCodec.rawLength(buffer, offset, length) > decoded.capacity()) {
+                throw new ProtocolException("回答的原始长度超过块大小上限：" + block_no);
+            }
+            length = block_codec.decode(buffer, offset, length, decoded);
+            buffer = decoded;
+            offset = 0;
+        }
+        SentBlock sent = in_flight.remove(block_no);
+        if (sent == null) {
+            throw new ProtocolException("收到未发送或重复的块：" + block_no);
+        }
+        if (length != sent.length) {
+            // 长度不同的回答写进去会覆盖相邻的块或留下空洞
+            throw new ProtocolException("回答与请求不匹配，块 " + block_no + " 发送 " + sent.length + " 字节，回答 " + length + " 字节");
+        }
+        ByteBuffer data = buffer.slice(offset, length);
+        output_writer.write(sent.output_offset, data);
+        answered++;
+        if (journal != null) {
+            journal.markCompleted(block_no);
+            if (++unsaved >= CHECKPOINT_INTERVAL) {
+                output_writer.flush();
+                journal.checkpoint();
+                unsaved = 0;
+            }
+        }
+        listener.onBlockAnswered(block_no, data);
+    }
+}
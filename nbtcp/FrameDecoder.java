@@ -0,0 +1,209 @@
+package nbtcp;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// reverse 协议的帧解码器，每个连接一个实例
+// 读缓冲区在多次读事件之间保留，TCP 拆包时保存半帧，粘包时一次解码出所有完整的帧
+public final class FrameDecoder {
+
+    public static final short TYPE_INITIALIZATION = 1;
+    public static final short TYPE_AGREE = 2;
+    public static final short TYPE_REVERSE_REQUEST = 3;
+    public static final short TYPE_REVERSE_ANSWER = 4;
+    // 带选项的握手报文，只有需要协商选项的客户端才发送，服务器对它回复带选项的 agree
+    public static final short TYPE_EXTENDED_INITIALIZATION = 5;
+    public static final short TYPE_EXTENDED_AGREE = 6;
+    // 续传：代替 Initialization，带上已完成的块，服务器同样回复带选项的 agree
+    public static final short TYPE_RESUME = 7;
+
+    public static final int INITIALIZATION_LENGTH = 2 + 4; // Type + N
+    public static final int AGREE_LENGTH = 2; // Type
+    public static final int REVERSE_HEADER_LENGTH = 2 + 4 + 4; // Type + Length + 块编号
+    // 带选项的握手报文 = Type + Length + 报文体，报文体末尾多出的字段留给以后的选项，解码时忽略
+    public static final int EXTENDED_HEADER_LENGTH = 2 + 4;
+    public static final int EXTENDED_INITIALIZATION_BODY_LENGTH = 4 + 1; // N + 压缩编码
+    public static final int TRANSFER_ID_LENGTH = 8; // 可选的传输 ID，跟在 Initialization 的压缩编码之后，0 表示没有
+    public static final int EXTENDED_AGREE_BODY_LENGTH = 1; // 服务器接受的压缩编码
+    public static final int MAX_EXTENDED_BODY_LENGTH = 1024;
+    // 续传报文 = Type + Length + 传输 ID + N + 压缩编码 + 已完成的前缀块数 + 之后各块是否完成的位图
+    public static final int RESUME_BODY_LENGTH = 8 + 4 + 1 + 4;
+
+    // 单块数据的最大长度，防止恶意的 Length 字段让服务器分配过大的缓冲区
+    public static final int MAX_BLOCK_LENGTH = Integer.getInteger("nbtcp.maxBlockLength", 16 * 1024 * 1024);
+
+    // 解码出的报文交给 Handler 处理，服务器和客户端各自只实现会收到的报文类型，收到其他类型视为协议错误
+    // 数据位于 buffer 的 [offset, offset + length)，只在回调期间有效，不能修改 buffer 的 position/limit
+    public interface Handler {
+        default void onInitialization(int num_blocks) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_INITIALIZATION);
+        }
+
+        default void onAgree() throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_AGREE);
+        }
+
+        default void onReverseRequest(int block_no, ByteBuffer buffer, int offset, int length) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_REVERSE_REQUEST);
+        }
+
+        default void onReverseAnswer(int block_no, ByteBuffer buffer, int offset, int length) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_REVERSE_ANSWER);
+        }
+
+        // codec 为客户端请求的 BlockCodec 压缩编码，transfer_id 为 0 表示客户端没有指定传输 ID
+        default void onExtendedInitialization(int num_blocks, int codec, long transfer_id) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_EXTENDED_INITIALIZATION);
+        }
+
+        default void onExtendedAgree(int codec) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_EXTENDED_AGREE);
+        }
+
+        // 块 1 到 completed_prefix 都已完成，之后的块 completed_prefix + 1 + i 是否完成由位图的第 i 位表示
+        // 位图位于 buffer 的 [bitmap_offset, bitmap_offset + bitmap_length)，每字节从最低位开始
+        default void onResume(long transfer_id, int num_blocks, int codec, int completed_prefix,
+                              ByteBuffer buffer, int bitmap_offset, int bitmap_length) throws IOException {
+            throw new ProtocolException("不应收到的报文类型：" + TYPE_RESUME);
+        }
+    }
+
+    private final BufferPool pool;
+    private final int initial_capacity;
+    private ByteBuffer buffer; // 从池中借出，始终处于写模式，[0, position) 是尚未解码的字节
+
+    public FrameDecoder(BufferPool pool, int initial_capacity) {
+        this.pool = pool;
+        this.initial_capacity = initial_capacity;
+        buffer = pool.acquire(initial_capacity);
+    }
+
+    // 连接关闭时把读缓冲区归还给池，之后不能再使用本解码器
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    // 从通道读取一次数据到读缓冲区，返回值与 ReadableByteChannel.read 相同
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        return channel.read(buffer);
+    }
+
+    // 已接收但还没有组成完整帧的字节数
+    public int pendingBytes() {
+        return buffer.position();
+    }
+
+    // 解码缓冲区中所有完整的帧，不完整的帧留到下一次读事件
+    // 帧格式：Initialization = Type + N，agree = Type，reverseRequest / reverseAnswer = Type + Length + 块编号 + Data
+    // 带选项的 Initialization / agree、续传 = Type + Length + 报文体
+    public void decode(Handler handler) throws IOException {
+        buffer.flip();
+        int needed = 0; // 当前不完整的帧总共需要的字节数
+        try {
+            while (buffer.remaining() >= 2) {
+                int start = buffer.position();
+                short type = buffer.getShort(start);
+                if (type == TYPE_INITIALIZATION) {
+                    if (buffer.remaining() < INITIALIZATION_LENGTH) {
+                        needed = INITIALIZATION_LENGTH;
+                        break;
+                    }
+                    int num_blocks = buffer.getInt(start + 2);
+                    buffer.position(start + INITIALIZATION_LENGTH);
+                    handler.onInitialization(num_blocks);
+                } else if (type == TYPE_AGREE) {
+                    buffer.position(start + AGREE_LENGTH);
+                    handler.onAgree();
+                } else if (type == TYPE_REVERSE_REQUEST || type == TYPE_REVERSE_ANSWER) {
+                    if (buffer.remaining() < REVERSE_HEADER_LENGTH) {
+                        needed = REVERSE_HEADER_LENGTH;
+                        break;
+                    }
+                    int length = buffer.getInt(start + 2);
+                    if (length < 0 || length > MAX_BLOCK_LENGTH) {
+                        throw new ProtocolException("报文长度不合法：" + length);
+                    }
+                    int frame_length = REVERSE_HEADER_LENGTH + length;
+                    if (buffer.remaining() < frame_length) {
+                        needed = frame_length;
+                        break;
+                    }
+                    int block_no = buffer.getInt(start + 6);
+                    buffer.position(start + frame_length);
+                    if (type == TYPE_REVERSE_REQUEST) {
+                        handler.onReverseRequest(block_no, buffer, start + REVERSE_HEADER_LENGTH, length);
+                    } else {
+                        handler.onReverseAnswer(block_no, buffer, start + REVERSE_HEADER_LENGTH, length);
+                    }
+                } else if (type == TYPE_EXTENDED_INITIALIZATION || type == TYPE_EXTENDED_AGREE) {
+                    if (buffer.remaining() < EXTENDED_HEADER_LENGTH) {
+                        needed = EXTENDED_HEADER_LENGTH;
+                        break;
+                    }
+                    int length = buffer.getInt(start + 2);
+                    int min_length = type == TYPE_EXTENDED_INITIALIZATION ? EXTENDED_INITIALIZATION_BODY_LENGTH : EXTENDED_AGREE_BODY_LENGTH;
+                    if (length < min_length || length > MAX_EXTENDED_BODY_LENGTH) {
+                        throw new ProtocolException("报文长度不合法：" + length);
+                    }
+                    int frame_length = EXTENDED_HEADER_LENGTH + length;
+                    if (buffer.remaining() < frame_length) {
+                        needed = frame_length;
+                        break;
+                    }
+                    int body = start + EXTENDED_HEADER_LENGTH;
+                    buffer.position(start + frame_length);
+                    if (type == TYPE_EXTENDED_INITIALIZATION) {
+                        long transfer_id = length >= EXTENDED_INITIALIZATION_BODY_LENGTH + TRANSFER_ID_LENGTH
+                                ? buffer.getLong(body + EXTENDED_INITIALIZATION_BODY_LENGTH) : 0;
+                        handler.onExtendedInitialization(buffer.getInt(body), buffer.get(body + 4), transfer_id);
+                    } else {
+                        handler.onExtendedAgree(buffer.get(body));
+                    }
+                } else if (type == TYPE_RESUME) {
+                    if (buffer.remaining() < EXTENDED_HEADER_LENGTH) {
+                        needed = EXTENDED_HEADER_LENGTH;
+                        break;
+                    }
+                    int length = buffer.getInt(start + 2);
+                    if (length < RESUME_BODY_LENGTH || length > MAX_BLOCK_LENGTH) {
+                        throw new ProtocolException("报文长度不合法：" + length);
+                    }
+                    int frame_length = EXTENDED_HEADER_LENGTH + length;
+                    if (buffer.remaining() < frame_length) {
+                        needed = frame_length;
+                        break;
+                    }
+                    int body = start + EXTENDED_HEADER_LENGTH;
+                    buffer.position(start + frame_length);
+                    handler.onResume(buffer.getLong(body), buffer.getInt(body + 8), buffer.get(body + 12), buffer.getInt(body + 13),
+                            buffer, body + RESUME_BODY_LENGTH, length - RESUME_BODY_LENGTH);
+                } else {
+                    // 流中出现未知类型说明已经失去帧同步，后面的数据都无法解析
+                    throw new ProtocolException("未知的报文类型：" + type);
+                }
+            }
+        } finally {
+            buffer.compact();
+        }
+        if (needed > buffer.capacity()) {
+            replaceBuffer(needed);
+        } else if (buffer.position() == 0 && buffer.capacity() > initial_capacity) {
+            // 大帧已经处理完且没有剩余数据，把大缓冲区还给池
+            replaceBuffer(initial_capacity);
+        }
+    }
+
+    // 换一个容量至少为 capacity 的缓冲区，保留已接收的数据
+    private void replaceBuffer(int capacity) {
+        ByteBuffer replacement = pool.acquire(capacity);
+        buffer.flip();
+        replacement.put(buffer);
+        pool.release(buffer);
+        buffer = replacement;
+    }
+}
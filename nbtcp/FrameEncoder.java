@@ -0,0 +1,82 @@
+package nbtcp;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+// 服务器发出的报文的编码，缓冲区从池中借出，返回时已处于读模式，发送完后由调用方归还
+public final class FrameEncoder {
+
+    private FrameEncoder() {
+    }
+
+    // agree 报文：Type
+    public static ByteBuffer agree(BufferPool pool) {
+        ByteBuffer buffer = pool.acquire(FrameDecoder.AGREE_LENGTH);
+        buffer.putShort(FrameDecoder.TYPE_AGREE); // Type
+        buffer.flip();
+        return buffer;
+    }
+
+    // 带选项的 agree 报文：Type + Length + 接受的压缩编码
+    public static ByteBuffer extendedAgree(BufferPool pool, int codec) {
+        ByteBuffer buffer = pool.acquire(FrameDecoder.EXTENDED_HEADER_LENGTH + FrameDecoder.EXTENDED_AGREE_BODY_LENGTH);
+        buffer.putShort(FrameDecoder.TYPE_EXTENDED_AGREE); // Type
+        buffer.putInt(FrameDecoder.EXTENDED_AGREE_BODY_LENGTH); // 报文体长度
+        buffer.put((byte) codec); // 压缩编码
+        buffer.flip();
+        return buffer;
+    }
+
+    // reverseAnswer 报文：Type + Length + 块编号 + 反转后的数据
+    // 数据直接从 src 的 [offset, offset + length) 反转写入发送缓冲区，不经过中间数组
+    public static ByteBuffer reverseAnswer(BufferPool pool, int block_no, ByteBuffer src, int offset, int length) {
+        ByteBuffer buffer = pool.acquire(FrameDecoder.REVERSE_HEADER_LENGTH + length);
+        buffer.putShort(FrameDecoder.TYPE_REVERSE_ANSWER); // 消息类型，类型4表示反转回答
+        buffer.putInt(length); // 数据长度
+        buffer.putInt(block_no); // 块编号
+        ReverseKernel.reverse(src, offset, length, buffer); // 反转后的数据
+        buffer.flip(); // 切换缓冲区为读模式
+        return buffer;
+    }
+
+    // 只有报文头的 reverseAnswer，length 字节的数据由调用方随后单独发送（例如直接从反转结果缓存发送）
+    public static ByteBuffer reverseAnswerHeader(BufferPool pool, int block_no, int length) {
+        ByteBuffer buffer = pool.acquire(FrameDecoder.REVERSE_HEADER_LENGTH);
+        buffer.putShort(FrameDecoder.TYPE_REVERSE_ANSWER); // 消息类型
+        buffer.putInt(length); // 数据长度
+        buffer.putInt(block_no); // 块编号
+        buffer.flip();
+        return buffer;
+    }
+
+    // 协商了压缩时的 reverseAnswer 报文，src 的 [offset, offset + length) 是 BlockCodec 编码的请求数据
+    // 解码后反转再重新编码；请求原样存储时直接反转写入发送缓冲区，不经过解码缓冲区
+    public static ByteBuffer reverseAnswer(BufferPool pool, int block_no, ByteBuffer src, int offset, int length, BlockCodec codec)
+            throws ProtocolException {
+        int raw_length = BlockCodec.rawLength(src, offset, length);
+        ByteBuffer buffer = pool.acquire(FrameDecoder.REVERSE_HEADER_LENGTH + BlockCodec.maxEncodedLength(raw_length));
+        buffer.position(FrameDecoder.REVERSE_HEADER_LENGTH);
+        if (BlockCodec.isStored(src, offset, length)) {
+            buffer.putInt(raw_length);
+            ReverseKernel.reverse(src, offset + BlockCodec.LENGTH_PREFIX, raw_length, buffer);
+        } else {
+            ByteBuffer raw = pool.acquire(raw_length);
+            try {
+                codec.decode(src, offset, length, raw);
+                ReverseKernel.reverseInPlace(raw, 0, raw_length);
+                codec.encode(raw, 0, raw_length, buffer);
+            } catch (ProtocolException e) {
+                pool.release(buffer);
+                throw e;
+            } finally {
+                pool.release(raw);
+            }
+        }
+        int payload_length = buffer.position() - FrameDecoder.REVERSE_HEADER_LENGTH;
+        buffer.putShort(0, FrameDecoder.TYPE_REVERSE_ANSWER); // 消息类型
+        buffer.putInt(2, payload_length); // 编码后的数据长度
+        buffer.putInt(6, block_no); // 块编号
+        buffer.flip();
+        return buffer;
+    }
+}
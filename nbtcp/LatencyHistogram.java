@@ -0,0 +1,106 @@
+package nbtcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 对数-线性分桶的延迟直方图，思路同 HdrHistogram：每个 2 的幂区间再均分成 64 格，相对误差不超过 1/64
+// 记录只做一次原子自增，可以被多个 reactor 线程并发调用，单位由调用方决定（这里统一用纳秒）
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 ns 约 18 分钟，更大的值记在最后一格
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT);
+    private final LongAdder total_sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        total_sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    // 小于 64 的值各占一格；其余按最高位所在的 2 的幂分组，组内取最高位之后的 6 位作为格号
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT - 1;
+        }
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int sub_bucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return group * SUB_BUCKET_COUNT + sub_bucket;
+    }
+
+    // 格子能表示的最大值
+    private static long bucketUpperBound(int index) {
+        int group = index / SUB_BUCKET_COUNT;
+        if (group == 0) {
+            return index;
+        }
+        long top = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        return ((top + 1) << (group - 1)) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total_sum.sum(), max.get());
+    }
+
+    // 某一时刻的只读副本，各项之间不保证严格一致
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // quantile 取值 [0, 1]，返回不小于该分位数的格子上界
+        public long valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
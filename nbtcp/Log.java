@@ -0,0 +1,199 @@
+package nbtcp;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// 异步日志：各线程把日志记录放入无锁环形缓冲区，由后台线程批量写到标准输出
+// 级别由 -Dnbtcp.logLevel 配置（OFF/ERROR/WARN/INFO/DEBUG，默认 INFO），每个报文的日志在 DEBUG 级别
+// 报文数据只有在 -Dnbtcp.logPayload=true 时才输出，并按 -Dnbtcp.logPayloadSampleRate 每 N 个报文采样一个
+// 环形缓冲区满时丢弃新的记录而不是阻塞调用方，丢弃的条数会在之后输出
+public final class Log {
+
+    public enum Level {
+        OFF, ERROR, WARN, INFO, DEBUG
+    }
+
+    private static final Level LEVEL = parseLevel(System.getProperty("nbtcp.logLevel", "INFO"));
+    private static final boolean PAYLOAD = Boolean.getBoolean("nbtcp.logPayload");
+    private static final int PAYLOAD_SAMPLE_RATE = Math.max(1, Integer.getInteger("nbtcp.logPayloadSampleRate", 1));
+    private static final int CAPACITY = 1 << 16; // 环形缓冲区容量，必须是 2 的幂
+    private static final int MAX_BATCH = 1024; // 每次最多合并写出的记录数
+    // 空闲时后台线程的休眠时间从最短开始，每次没有记录就加倍，直到最长；有记录时恢复最短
+    private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final class Record {
+        final long time_millis;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error; // 没有异常时为 null，堆栈由后台线程展开
+
+        Record(Level level, String message, Throwable error) {
+            this.time_millis = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    // 多生产者单消费者：生产者用 CAS 抢占 tail 上的位置后写入槽位，消费者按 head 顺序取出并清空槽位
+    private static final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong payload_counter = new AtomicLong();
+    private static volatile long head; // 只由后台线程写入
+    private static volatile boolean running = true;
+    private static final PrintStream out = System.out;
+    private static final Thread drainer;
+
+    static {
+        drainer = new Thread(Log::drainLoop, "log-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private Log() {
+    }
+
+    // 无效的级别不能让类初始化失败，否则第一次写日志的线程会抛出 ExceptionInInitializerError
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("无效的日志级别 -Dnbtcp.logLevel=" + value + "，可选 OFF/ERROR/WARN/INFO/DEBUG，使用 INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.ordinal() <= LEVEL.ordinal();
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    // 本条报文是否输出数据内容，未开启时不做任何原子操作
+    public static boolean shouldLogPayload() {
+        return PAYLOAD && isDebugEnabled() && payload_counter.getAndIncrement() % PAYLOAD_SAMPLE_RATE == 0;
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    // 记录后面附上 error 的堆栈，和其他日志一样异步写出，不会与其他记录交错
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    // 调用方应先检查 isDebugEnabled，避免在关闭时拼接字符串
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void log(Level level, String message) {
+        log(level, message, null);
+    }
+
+    public static void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Record record = new Record(level, message, error);
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int) (sequence & (CAPACITY - 1)), record);
+        if (sequence - head == CAPACITY / 2) {
+            // 后台线程可能正在长时间休眠，缓冲区过半时叫醒它，每个位置只有一个生产者会走到这里
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    // 日志用：把缓冲区中的一段数据按平台默认编码转成字符串
+    public static String text(ByteBuffer buffer, int offset, int length) {
+        return Charset.defaultCharset().decode(buffer.slice(offset, length)).toString();
+    }
+
+    // 写出所有已提交的记录并停止后台线程，用于关闭钩子，之后的日志会被丢弃
+    public static void shutdown() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drainLoop() {
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        SimpleDateFormat time_format = new SimpleDateFormat("HH:mm:ss.SSS");
+        Date date = new Date();
+        long park_nanos = MIN_IDLE_PARK_NANOS;
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            long position = head;
+            Record record;
+            while (count < MAX_BATCH && (record = slots.get((int) (position & (CAPACITY - 1)))) != null) {
+                slots.lazySet((int) (position & (CAPACITY - 1)), null);
+                position++;
+                count++;
+                date.setTime(record.time_millis);
+                batch.append(time_format.format(date)).append(' ').append(record.level).append(" [")
+                        .append(record.thread).append("] ").append(record.message).append('\n');
+                if (record.error != null) {
+                    StringWriter stack_trace = new StringWriter();
+                    record.error.printStackTrace(new PrintWriter(stack_trace));
+                    batch.append(stack_trace.getBuffer());
+                }
+            }
+            head = position;
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                batch.append("日志缓冲区已满，丢弃了 ").append(lost).append(" 条日志\n");
+            }
+            if (batch.length() > 0) {
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+            }
+            if (count == 0) {
+                if (stopping) {
+                    return;
+                }
+                LockSupport.parkNanos(park_nanos);
+                park_nanos = Math.min(park_nanos * 2, MAX_IDLE_PARK_NANOS);
+            } else {
+                park_nanos = MIN_IDLE_PARK_NANOS;
+            }
+        }
+    }
+}
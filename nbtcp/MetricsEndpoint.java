@@ -0,0 +1,110 @@
+package nbtcp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+// 纯文本的指标抓取端点，格式兼容 Prometheus 的文本格式，监听独立端口，与 reactor 线程互不影响
+// GET /metrics 返回全局计数器和各直方图的分位数，GET /connections 返回每个连接的计数
+public final class MetricsEndpoint {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final ServerMetrics metrics;
+    private final HttpServer server;
+
+    public MetricsEndpoint(ServerMetrics metrics, InetSocketAddress address) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> respond(exchange, renderMetrics()));
+        server.createContext("/connections", exchange -> respond(exchange, renderConnections()));
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        Log.info("指标端点启动：http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String renderMetrics() {
+        StringBuilder text = new StringBuilder(4096);
+        counter(text, "nbtcp_connections_accepted_total", metrics.getConnectionsAccepted());
+        counter(text, "nbtcp_connections_closed_total", metrics.getConnectionsClosed());
+        counter(text, "nbtcp_connections_evicted_total", metrics.getConnectionsEvicted());
+        gauge(text, "nbtcp_connections_active", metrics.getConnectionsActive());
+        counter(text, "nbtcp_bytes_in_total", metrics.getBytesIn());
+        counter(text, "nbtcp_bytes_out_total", metrics.getBytesOut());
+        counter(text, "nbtcp_messages_in_total", metrics.getMessagesIn());
+        counter(text, "nbtcp_messages_out_total", metrics.getMessagesOut());
+        counter(text, "nbtcp_reverse_cache_hits_total", metrics.getReverseCacheHits());
+        counter(text, "nbtcp_reverse_cache_misses_total", metrics.getReverseCacheMisses());
+        counter(text, "nbtcp_transfers_resumed_total", metrics.getTransfersResumed());
+        gauge(text, "nbtcp_bytes_in_per_second", metrics.getBytesInPerSecond());
+        gauge(text, "nbtcp_bytes_out_per_second", metrics.getBytesOutPerSecond());
+        gauge(text, "nbtcp_messages_in_per_second", metrics.getMessagesInPerSecond());
+
+        text.append("# TYPE nbtcp_latency_nanoseconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.histograms().entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            String stage = entry.getKey();
+            for (double quantile : QUANTILES) {
+                text.append("nbtcp_latency_nanoseconds{stage=\"").append(stage).append("\",quantile=\"").append(quantile)
+                        .append("\"} ").append(snapshot.valueAtQuantile(quantile)).append('\n');
+            }
+            text.append("nbtcp_latency_nanoseconds_count{stage=\"").append(stage).append("\"} ").append(snapshot.count()).append('\n');
+            text.append("nbtcp_latency_nanoseconds_max{stage=\"").append(stage).append("\"} ").append(snapshot.max()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private String renderConnections() {
+        StringBuilder text = new StringBuilder(4096);
+        long now = System.currentTimeMillis();
+        text.append("# remote bytes_in bytes_out messages_in messages_out age_ms bytes_in_per_second bytes_out_per_second blocks_answered blocks_expected\n");
+        for (ServerMetrics.ConnectionStats connection : metrics.connections()) {
+            long age_ms = Math.max(1, now - connection.createdMillis());
+            text.append(connection.remoteAddress()).append(' ')
+                    .append(connection.bytesIn()).append(' ')
+                    .append(connection.bytesOut()).append(' ')
+                    .append(connection.messagesIn()).append(' ')
+                    .append(connection.messagesOut()).append(' ')
+                    .append(age_ms).append(' ')
+                    .append(connection.bytesIn() * 1000 / age_ms).append(' ')
+                    .append(connection.bytesOut() * 1000 / age_ms).append(' ')
+                    .append(connection.blocksAnswered()).append(' ')
+                    .append(connection.blocksExpected()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, double value) {
+        text.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,138 @@
+package nbtcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// 一次传输的输出文件：打开一个 FileChannel 并预先扩展到最终大小，每块写到它在文件中的最终位置
+// 相邻的块先拼接在暂存缓冲区中，不相邻或暂存满了才合并成一次定位写；只在 close 时 fsync 一次
+// 开启 nbtcp.outputMapped 时改为按窗口内存映射输出文件，块直接拷贝到映射区域
+// 续传时保留已有的输出文件，只把缺少的块写到各自的位置
+// 不是线程安全的，只在执行传输的线程中使用
+public final class OutputWriter implements Closeable {
+
+    // 是否用内存映射写输出文件
+    private static final boolean MEMORY_MAPPED = Boolean.getBoolean("nbtcp.outputMapped");
+    // 关闭时是否 fsync，关闭后数据只在页缓存中，掉电可能丢失
+    private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("nbtcp.outputSync", "true"));
+    private static final int BATCH_LENGTH = 1024 * 1024; // 暂存缓冲区大小，超过它的块直接写
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024; // 每次内存映射的输出区域大小
+
+    private final FileChannel channel;
+    private final long size;
+    private final boolean mapped;
+
+    // 定位写：暂存缓冲区中是从 batch_position 开始的一段连续数据
+    private ByteBuffer batch;
+    private long batch_position;
+
+    // 内存映射：当前映射的输出区域
+    private MappedByteBuffer map_window;
+    private long map_window_start;
+
+    public OutputWriter(Path output, long size) throws IOException {
+        this(output, size, false);
+    }
+
+    // keep_existing 为 true 时不截断已有的输出文件，续传时之前写入的块保持不变
+    public OutputWriter(Path output, long size, boolean keep_existing) throws IOException {
+        this(output, size, keep_existing, MEMORY_MAPPED);
+    }
+
+    // 测试用：不经过系统属性选择写入方式
+    OutputWriter(Path output, long size, boolean keep_existing, boolean mapped) throws IOException {
+        this.size = size;
+        this.mapped = mapped;
+        channel = keep_existing
+                ? FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long current_size = channel.size();
+            if (current_size > size) {
+                channel.truncate(size);
+            } else if (current_size < size) {
+                // 写入最后一个字节，让文件一次扩展到最终大小
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (!mapped) {
+            batch = ByteBuffer.allocateDirect((int) Math.min(BATCH_LENGTH, Math.max(1, size)));
+        }
+    }
+
+    // 把 data 的剩余部分写到文件的 position 处，返回后 data 的内容不再被引用
+    public void write(long position, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (position < 0 || position + length > size) {
+            throw new IllegalArgumentException("写入位置超出输出文件：" + position + " + " + length + " > " + size);
+        }
+        if (mapped) {
+            writeMapped(position, data);
+            return;
+        }
+        if (batch.position() > 0 && (position != batch_position + batch.position() || length > batch.remaining())) {
+            flushBatch();
+        }
+        if (length > batch.capacity()) {
+            writeFully(data.duplicate(), position);
+            return;
+        }
+        if (batch.position() == 0) {
+            batch_position = position;
+        }
+        batch.put(data.duplicate());
+    }
+
+    private void writeMapped(long position, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (map_window == null || position < map_window_start || position + length > map_window_start + map_window.capacity()) {
+            // 回答大致按输出文件的顺序到达，从当前块开始映射下一个窗口
+            map_window_start = position;
+            map_window = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.min(size - position, Math.max(MAP_WINDOW_SIZE, length)));
+        }
+        map_window.put((int) (position - map_window_start), data, data.position(), length);
+    }
+
+    // 把暂存的数据写到文件中（不 fsync），之后进程崩溃也不会丢失已写入的块
+    public void flush() throws IOException {
+        if (batch != null && batch.position() > 0) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        batch.flip();
+        writeFully(batch, batch_position);
+        batch.clear();
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    // 写出暂存的数据，fsync 后关闭文件
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (SYNC) {
+                // 内存映射的脏页和通道写入的数据在同一个页缓存中，一次 fsync 都会落盘
+                channel.force(true);
+            }
+        } finally {
+            map_window = null;
+            channel.close();
+        }
+    }
+}
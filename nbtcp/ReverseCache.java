@@ -0,0 +1,203 @@
+package nbtcp;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// 反转结果缓存：以块内容的 64 位哈希为键，值是反转后的数据，存放在从缓冲区池借出的直接内存中
+// 命中时逐字节比较请求与缓存数据（倒序比较，不需要保存原始数据），哈希碰撞按未命中处理
+// 按占用的字节数做 LRU 淘汰；新块第二次出现时才放入缓存，只出现一次的块不会挤掉常用的块
+// 命中的数据直接放入发送队列，发送期间被钉住，淘汰后等发送完才归还给池
+// 与缓冲区池一样每个 reactor 一个，不是线程安全的
+public final class ReverseCache {
+
+    // 小于它的块反转比查缓存更快
+    public static final int MIN_CACHED_LENGTH = 256;
+    private static final int DOORKEEPER_SLOTS = 1 << 16;
+
+    public static final class Entry {
+        private final long hash;
+        private final int length;
+        private final ByteBuffer data; // 从池中借出，[0, length) 是反转后的数据
+        private int pins; // 正在发送这份数据的次数
+        private boolean evicted;
+
+        private Entry(long hash, int length, ByteBuffer data) {
+            this.hash = hash;
+            this.length = length;
+            this.data = data;
+        }
+
+        // 用于发送的只读视图，发送完后调用 ReverseCache.release
+        public ByteBuffer view() {
+            return data.asReadOnlyBuffer().limit(length).position(0);
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+
+    private final BufferPool pool;
+    private final long max_bytes;
+    private final int max_cached_length;
+    // 按访问顺序排列，最久没有访问的在最前面
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // 最近出现过一次的块的哈希，按哈希的低位放置，冲突时直接覆盖
+    private final long[] doorkeeper = new long[DOORKEEPER_SLOTS];
+    private long bytes; // 缓存数据占用的缓冲区容量，包括已淘汰但仍在发送的
+    private long evictions;
+
+    public ReverseCache(BufferPool pool, long max_bytes) {
+        this.pool = pool;
+        this.max_bytes = max_bytes;
+        // 单块最多占缓存的 1/16，避免一个大块清空整个缓存
+        this.max_cached_length = (int) Math.min(FrameDecoder.MAX_BLOCK_LENGTH, max_bytes / 16);
+    }
+
+    // 长度为 length 的块是否值得查缓存
+    public boolean isCacheable(int length) {
+        return length >= MIN_CACHED_LENGTH && length <= max_cached_length;
+    }
+
+    // 查找 src 的 [offset, offset + length) 的反转结果，命中时返回已钉住的条目
+    // 命中和未命中次数由调用方计入 ServerMetrics，这里不重复统计
+    public Entry lookup(long hash, ByteBuffer src, int offset, int length) {
+        Entry entry = entries.get(hash);
+        if (entry == null || entry.length != length || !matchesReversed(src, offset, entry.data, length)) {
+            return null;
+        }
+        entry.pins++;
+        return entry;
+    }
+
+    // 未命中后提交反转结果 reversed 的 [offset, offset + length)，第二次见到的块才复制进缓存
+    public void admit(long hash, ByteBuffer reversed, int offset, int length) {
+        int slot = (int) hash & (DOORKEEPER_SLOTS - 1);
+        if (doorkeeper[slot] != hash) {
+            doorkeeper[slot] = hash;
+            return;
+        }
+        ByteBuffer data = pool.acquire(length);
+        data.put(0, reversed, offset, length);
+        Entry entry = new Entry(hash, length, data);
+        Entry replaced = entries.put(hash, entry);
+        if (replaced != null) {
+            evict(replaced); // 哈希相同而内容不同的块，新块替换旧块
+        }
+        bytes += data.capacity();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > max_bytes && eldest.hasNext()) {
+            Entry victim = eldest.next();
+            eldest.remove();
+            evict(victim);
+        }
+    }
+
+    // 发送完命中的数据后调用
+    public void release(Entry entry) {
+        if (--entry.pins == 0 && entry.evicted) {
+            free(entry);
+        }
+    }
+
+    private void evict(Entry entry) {
+        evictions++;
+        entry.evicted = true;
+        if (entry.pins == 0) {
+            free(entry);
+        }
+    }
+
+    private void free(Entry entry) {
+        bytes -= entry.data.capacity();
+        pool.release(entry.data);
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReverseCache{entries=" + entries.size() + ", bytes=" + bytes + ", evictions=" + evictions + "}";
+    }
+
+    // src 的 [offset, offset + length) 是否等于 reversed 的 [0, length) 倒过来
+    private static boolean matchesReversed(ByteBuffer src, int offset, ByteBuffer reversed, int length) {
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (src.getLong(offset + i) != Long.reverseBytes(reversed.getLong(length - Long.BYTES - i))) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (src.get(offset + i) != reversed.get(length - 1 - i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    // 64 位内容哈希，使用 XXH64 的算法，按缓冲区的字节序读取 8 字节字
+    public static long hash(ByteBuffer src, int offset, int length) {
+        int i = 0;
+        long h;
+        if (length >= 32) {
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+            for (; i + 32 <= length; i += 32) {
+                v1 = round(v1, src.getLong(offset + i));
+                v2 = round(v2, src.getLong(offset + i + 8));
+                v3 = round(v3, src.getLong(offset + i + 16));
+                v4 = round(v4, src.getLong(offset + i + 24));
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        h += length;
+        for (; i + 8 <= length; i += 8) {
+            h ^= round(0, src.getLong(offset + i));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (i + 4 <= length) {
+            h ^= (src.getInt(offset + i) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            i += 4;
+        }
+        for (; i < length; i++) {
+            h ^= (src.get(offset + i) & 0xFFL) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+        }
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long merge(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+}
@@ -0,0 +1,234 @@
+package nbtcp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 不依赖界面的客户端引擎，图形界面和命令行都基于它
+// 多个文件并行传输，每个传输线程独占连接池中的一条连接，一条连接上的文件仍然依次传输
+// resumable 为 true 时每个文件在输出目录中记录续传日志，连接出错后换一条新连接只重传缺少的块
+public final class ReverseClient {
+
+    // 传输进度的通知，从各个传输线程中并发回调，实现必须是线程安全的
+    public interface Listener {
+        // 续传之前中断的传输时在 onFileStarted 之前回调，completed_blocks 为之前已完成的块数
+        default void onFileResumed(Path file, int completed_blocks) {
+        }
+
+        default void onFileStarted(Path file, int num_blocks) {
+        }
+
+        // data 只在回调期间有效
+        default void onBlockAnswered(Path file, int block_no, ByteBuffer data) {
+        }
+
+        default void onFileCompleted(Path file, Path output) {
+        }
+
+        default void onFileFailed(Path file, Exception cause) {
+        }
+    }
+
+    private static final int MAX_ATTEMPTS = 3; // 续传时每个文件最多尝试的次数
+    private static final long RETRY_DELAY_MS = 500; // 第 n 次重试前等待 n 倍的时间
+    private static final AtomicLong OUTPUT_SEQUENCE = new AtomicLong(); // 输出文件名的序号
+
+    private final InetSocketAddress server_address;
+    private final int lmin;
+    private final int lmax;
+    private final int window;
+    private final int parallelism;
+    private final int compression_level; // 0 表示不压缩
+    private final Path output_directory;
+    private final boolean resumable;
+
+    public ReverseClient(InetSocketAddress server_address, int lmin, int lmax, int window, int parallelism, Path output_directory) {
+        this(server_address, lmin, lmax, window, parallelism, output_directory, 0);
+    }
+
+    public ReverseClient(InetSocketAddress server_address, int lmin, int lmax, int window, int parallelism, Path output_directory,
+                         int compression_level) {
+        this(server_address, lmin, lmax, window, parallelism, output_directory, compression_level, false);
+    }
+
+    public ReverseClient(InetSocketAddress server_address, int lmin, int lmax, int window, int parallelism, Path output_directory,
+                         int compression_level, boolean resumable) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("并行传输数必须大于 0：" + parallelism);
+        }
+        this.server_address = server_address;
+        this.lmin = lmin;
+        this.lmax = lmax;
+        this.window = window;
+        this.parallelism = parallelism;
+        this.compression_level = compression_level;
+        this.output_directory = output_directory;
+        this.resumable = resumable;
+    }
+
+    // 传输所有文件，全部完成或失败后返回，返回失败的文件数
+    public int transferAll(List<Path> files, Listener listener) throws InterruptedException {
+        int threads = Math.min(parallelism, Math.max(1, files.size()));
+        // 连接池：传输开始时借出一条连接，成功后归还；出错的连接直接关闭，下次借用时重新建立
+        BlockingQueue<SocketChannel> connections = new ArrayBlockingQueue<>(threads);
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, transferThreadFactory());
+        try {
+            for (Path file : files) {
+                executor.execute(() -> {
+                    try {
+                        transferFile(file, connections, listener);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        listener.onFileFailed(file, e);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            executor.shutdownNow();
+            SocketChannel socket_channel;
+            while ((socket_channel = connections.poll()) != null) {
+                closeQuietly(socket_channel);
+            }
+        }
+        return failures.get();
+    }
+
+    // 输出文件名为 reverse_<文件名>output_<时间戳>_<序号>.txt，序号在进程内递增，
+    // 同一毫秒内并行传输的同名文件不会写到同一个输出文件，已存在的文件名也会跳过
+    public Path outputPathFor(Path file) {
+        long millis = System.currentTimeMillis();
+        Path output;
+        do {
+            output = output_directory.resolve("reverse_" + file.getFileName() + "output_" + millis + "_"
+                    + OUTPUT_SEQUENCE.incrementAndGet() + ".txt");
+        } while (Files.exists(output));
+        return output;
+    }
+
+    // 续传日志名由文件名加上绝对路径、大小和修改时间的摘要组成：同一个文件再次传输时能找到上次的日志，
+    // 不同目录下的同名文件不会共用日志，文件修改后也不会沿用旧日志
+    public Path journalPathFor(Path file) throws IOException {
+        String key = file.toAbsolutePath().normalize() + "\0" + Files.size(file) + "\0" + Files.getLastModifiedTime(file).toMillis();
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 每个 Java 平台都必须支持 SHA-256
+        }
+        StringBuilder name = new StringBuilder("reverse_").append(file.getFileName()).append('_');
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", digest[i]));
+        }
+        return output_directory.resolve(name.append(".journal").toString());
+    }
+
+    private void transferFile(Path file, BlockingQueue<SocketChannel> connections, Listener listener) throws IOException {
+        if (!resumable) {
+            transferFile(file, connections, listener, null, new boolean[1]);
+            return;
+        }
+        Path journal_path = journalPathFor(file);
+        boolean[] started = new boolean[1]; // 重试时不再重复通知开始
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transferFile(file, connections, listener, journal_path, started);
+                return;
+            } catch (ProtocolException e) {
+                throw e; // 服务器拒绝或协议错误，重试也不会成功
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待重试时被中断");
+                }
+            }
+        }
+    }
+
+    private void transferFile(Path file, BlockingQueue<SocketChannel> connections, Listener listener, Path journal_path,
+                              boolean[] started) throws IOException {
+        SocketChannel socket_channel = connections.poll();
+        if (socket_channel == null) {
+            socket_channel = SocketChannel.open(server_address); // 创建一个SocketChannel，用于与服务器通信
+        }
+        boolean reusable = false;
+        try {
+            FileTransfer transfer = new FileTransfer(socket_channel, file, outputPathFor(file), lmin, lmax, window, compression_level,
+                    journal_path);
+            boolean agreed = transfer.run(new FileTransfer.Listener() {
+                @Override
+                public void onResumed(int completed_blocks) {
+                    if (!started[0]) {
+                        listener.onFileResumed(file, completed_blocks);
+                    }
+                }
+
+                @Override
+                public void onStarted(int num_blocks) {
+                    if (!started[0]) {
+                        started[0] = true;
+                        listener.onFileStarted(file, num_blocks);
+                    }
+                }
+
+                @Override
+                public void onBlockAnswered(int block_no, ByteBuffer data) {
+                    listener.onBlockAnswered(file, block_no, data);
+                }
+            });
+            if (!agreed) {
+                throw new ProtocolException("未收到来自服务器的文件 " + file.getFileName() + " 的同意消息");
+            }
+            reusable = true;
+            listener.onFileCompleted(file, transfer.output());
+        } finally {
+            if (reusable) {
+                connections.offer(socket_channel);
+            } else {
+                closeQuietly(socket_channel);
+            }
+        }
+    }
+
+    private static ThreadFactory transferThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "transfer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void closeQuietly(SocketChannel socket_channel) {
+        try {
+            socket_channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
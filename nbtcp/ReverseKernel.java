@@ -0,0 +1,67 @@
+package nbtcp;
+
+import java.nio.ByteBuffer;
+
+// 字节序列反转
+// 每次处理 8 个字节：用 Long.reverseBytes 反转一个 long 内部的字节顺序，再把 long 写到镜像位置，
+// 剩余不足 8 字节的部分逐字节处理。结果与逐字节反转完全相同
+// getLong / putLong 各自按所属缓冲区的字节序解释 long：src 和 dst 字节序相同时需要 reverseBytes，
+// 不同时写入本身就把 8 个字节倒过来了，不能再反转一次
+public final class ReverseKernel {
+
+    private ReverseKernel() {
+    }
+
+    // 把 src 中 [offset, offset + length) 的数据倒序写入 dst 的当前位置，并推进 dst 的 position
+    // 不改变 src 的 position/limit
+    public static void reverse(ByteBuffer src, int offset, int length, ByteBuffer dst) {
+        int dst_position = dst.position();
+        int src_end = offset + length;
+        int i = 0;
+        if (src.order() == dst.order()) {
+            for (; i + 8 <= length; i += 8) {
+                long chunk = src.getLong(src_end - i - 8);
+                dst.putLong(dst_position + i, Long.reverseBytes(chunk));
+            }
+        } else {
+            for (; i + 8 <= length; i += 8) {
+                dst.putLong(dst_position + i, src.getLong(src_end - i - 8));
+            }
+        }
+        for (; i < length; i++) {
+            dst.put(dst_position + i, src.get(src_end - 1 - i));
+        }
+        dst.position(dst_position + length);
+    }
+
+    // 原地反转 buffer 中 [offset, offset + length) 的数据，不改变 position/limit
+    public static void reverseInPlace(ByteBuffer buffer, int offset, int length) {
+        int low = offset;
+        int high = offset + length; // 不包含
+        // 两端各取 8 字节，反转后交换位置
+        while (high - low >= 16) {
+            long head = buffer.getLong(low);
+            long tail = buffer.getLong(high - 8);
+            buffer.putLong(low, Long.reverseBytes(tail));
+            buffer.putLong(high - 8, Long.reverseBytes(head));
+            low += 8;
+            high -= 8;
+        }
+        // 中间剩下不足 16 字节，逐字节交换
+        high--;
+        while (low < high) {
+            byte b = buffer.get(low);
+            buffer.put(low, buffer.get(high));
+            buffer.put(high, b);
+            low++;
+            high--;
+        }
+    }
+
+    // 逐字节反转，作为正确性和性能对比的基准
+    public static void reverseScalar(ByteBuffer src, int offset, int length, ByteBuffer dst) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            dst.put(src.get(i));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package nbtcp;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// 服务器的全局指标：计数器用 LongAdder 分段累加，各 reactor 线程并发更新时互不争用
+// 延迟直方图按阶段（accept/read/reverse/write）和报文类型（从解码出请求到回答完全写出）划分，单位纳秒
+public final class ServerMetrics implements ServerMetricsMXBean {
+
+    // 每个连接的计数，由所属 reactor 线程更新，其他线程读取到的是近似值
+    public interface ConnectionStats {
+        String remoteAddress();
+
+        long createdMillis();
+
+        long bytesIn();
+
+        long bytesOut();
+
+        long messagesIn();
+
+        long messagesOut();
+
+        // 当前传输的块数和已回答的块数，没有进行中的传输时都为 0
+        int blocksExpected();
+
+        int blocksAnswered();
+    }
+
+    public final LongAdder connections_accepted = new LongAdder();
+    public final LongAdder connections_closed = new LongAdder();
+    public final LongAdder connections_evicted = new LongAdder(); // 因空闲、读或写超时被关闭，也计入 connections_closed
+    public final LongAdder bytes_in = new LongAdder();
+    public final LongAdder bytes_out = new LongAdder();
+    public final LongAdder messages_in = new LongAdder();
+    public final LongAdder messages_out = new LongAdder();
+    public final LongAdder reverse_cache_hits = new LongAdder(); // 反转结果缓存命中，只统计查过缓存的块
+    public final LongAdder reverse_cache_misses = new LongAdder();
+    public final LongAdder transfers_resumed = new LongAdder(); // 收到的续传报文
+
+    public final LatencyHistogram accept_latency = new LatencyHistogram(); // accept 到 reactor 完成注册
+    public final LatencyHistogram read_latency = new LatencyHistogram(); // 一次读事件的 read + 解码
+    public final LatencyHistogram reverse_latency = new LatencyHistogram(); // 反转一个块
+    public final LatencyHistogram write_latency = new LatencyHistogram(); // 一次 flush 的 write
+    public final LatencyHistogram agree_latency = new LatencyHistogram(); // Initialization 解码到 agree 写出
+    public final LatencyHistogram answer_latency = new LatencyHistogram(); // reverseRequest 解码到 reverseAnswer 写出
+
+    private final Collection<? extends ConnectionStats> connections;
+
+    // 每秒采样一次计算速率
+    private volatile double bytes_in_per_second;
+    private volatile double bytes_out_per_second;
+    private volatile double messages_in_per_second;
+    private long last_bytes_in;
+    private long last_bytes_out;
+    private long last_messages_in;
+    private long last_sample_nanos = System.nanoTime();
+
+    // connections 是当前存活连接的并发集合，只在导出时遍历
+    public ServerMetrics(Collection<? extends ConnectionStats> connections) {
+        this.connections = connections;
+    }
+
+    // 注册 JMX 并启动速率采样线程
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("nbtcp:type=ServerMetrics"));
+        } catch (JMException e) {
+            Log.warn("注册 JMX 指标失败：" + e.getMessage());
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+        double seconds = (now - last_sample_nanos) / 1e9;
+        long in = bytes_in.sum();
+        long out = bytes_out.sum();
+        long messages = messages_in.sum();
+        bytes_in_per_second = (in - last_bytes_in) / seconds;
+        bytes_out_per_second = (out - last_bytes_out) / seconds;
+        messages_in_per_second = (messages - last_messages_in) / seconds;
+        last_bytes_in = in;
+        last_bytes_out = out;
+        last_messages_in = messages;
+        last_sample_nanos = now;
+    }
+
+    public Collection<? extends ConnectionStats> connections() {
+        return connections;
+    }
+
+    // 按名称列出所有直方图，导出时使用
+    public Map<String, LatencyHistogram> histograms() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        histograms.put("accept", accept_latency);
+        histograms.put("read", read_latency);
+        histograms.put("reverse", reverse_latency);
+        histograms.put("write", write_latency);
+        histograms.put("agree", agree_latency);
+        histograms.put("reverseAnswer", answer_latency);
+        return histograms;
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connections_accepted.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connections_closed.sum();
+    }
+
+    @Override
+    public long getConnectionsEvicted() {
+        return connections_evicted.sum();
+    }
+
+    @Override
+    public long getReverseCacheHits() {
+        return reverse_cache_hits.sum();
+    }
+
+    @Override
+    public long getReverseCacheMisses() {
+        return reverse_cache_misses.sum();
+    }
+
+    @Override
+    public long getTransfersResumed() {
+        return transfers_resumed.sum();
+    }
+
+    @Override
+    public long getConnectionsActive() {
+        return connections.size();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytes_in.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytes_out.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messages_in.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messages_out.sum();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return bytes_in_per_second;
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return bytes_out_per_second;
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return messages_in_per_second;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        Map<String, Long> latency = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms().entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            latency.put(entry.getKey() + ".p50", snapshot.valueAtQuantile(0.5));
+            latency.put(entry.getKey() + ".p99", snapshot.valueAtQuantile(0.99));
+            latency.put(entry.getKey() + ".p999", snapshot.valueAtQuantile(0.999));
+            latency.put(entry.getKey() + ".max", snapshot.max());
+        }
+        return latency;
+    }
+}
@@ -0,0 +1,38 @@
+package nbtcp;
+
+import java.util.Map;
+
+// 通过 JMX 暴露的服务器指标，ObjectName 为 nbtcp:type=ServerMetrics
+public interface ServerMetricsMXBean {
+
+    long getConnectionsAccepted();
+
+    long getConnectionsClosed();
+
+    long getConnectionsEvicted();
+
+    long getReverseCacheHits();
+
+    long getReverseCacheMisses();
+
+    long getTransfersResumed();
+
+    long getConnectionsActive();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getBytesInPerSecond();
+
+    double getBytesOutPerSecond();
+
+    double getMessagesInPerSecond();
+
+    // 键为 "<直方图名>.<p50|p99|p999|max>"，值为纳秒
+    Map<String, Long> getLatencyNanos();
+}
@@ -0,0 +1,141 @@
+package nbtcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// 哈希时间轮：槽位数为 2 的幂，每个槽位是一个侵入式双向链表，定时器按到期的 tick 编号放入对应槽位
+// 调度、重新调度和取消都是 O(1)，超过一圈的定时器留在槽位中，每转一圈比较一次到期 tick
+// 由所属 reactor 的 select(timeout) 循环推进，不需要额外的线程；不是线程安全的
+public final class TimingWheel<T> {
+
+    // 一个定时器，同一时刻最多位于一个槽位中
+    public static final class Timeout<T> {
+        private final T attachment;
+        private long deadline_tick;
+        private long deadline_nanos;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private boolean scheduled;
+
+        public Timeout(T attachment) {
+            this.attachment = attachment;
+        }
+
+        public T attachment() {
+            return attachment;
+        }
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+
+        public long deadlineNanos() {
+            return deadline_nanos;
+        }
+    }
+
+    // 每个槽位的链表头，使用哨兵节点省去空链表的判断
+    private final Timeout<T>[] slots;
+    private final int mask;
+    private final long tick_nanos;
+    private final long start_nanos;
+    private long current_tick; // 已经处理完的最后一个 tick
+    private int size;
+    private final List<Timeout<T>> expired = new ArrayList<>();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tick_nanos, int slot_count, long now_nanos) {
+        if (tick_nanos <= 0) {
+            throw new IllegalArgumentException("tick 必须大于 0：" + tick_nanos);
+        }
+        int count = Integer.highestOneBit(Math.max(1, slot_count - 1)) << 1;
+        slots = new Timeout[count];
+        for (int i = 0; i < count; i++) {
+            Timeout<T> head = new Timeout<>(null);
+            head.prev = head;
+            head.next = head;
+            slots[i] = head;
+        }
+        mask = count - 1;
+        this.tick_nanos = tick_nanos;
+        this.start_nanos = now_nanos;
+    }
+
+    // 在 deadline_nanos 之后触发，已经调度过的定时器先从原槽位摘下
+    public void schedule(Timeout<T> timeout, long deadline_nanos) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+        // 向上取整到 tick，且至少在下一个 tick 触发
+        long tick = Math.max(current_tick + 1, Math.floorDiv(deadline_nanos - start_nanos + tick_nanos - 1, tick_nanos));
+        timeout.deadline_tick = tick;
+        timeout.deadline_nanos = deadline_nanos;
+        Timeout<T> head = slots[(int) (tick & mask)];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 距离下一个 tick 的毫秒数，用作 select 的超时，没有定时器时返回 0 表示无限等待
+    public long millisUntilNextTick(long now_nanos) {
+        if (size == 0) {
+            return 0;
+        }
+        long next_tick_nanos = start_nanos + (current_tick + 1) * tick_nanos;
+        return Math.max(1, (next_tick_nanos - now_nanos + 999_999) / 1_000_000);
+    }
+
+    // 推进到 now_nanos，对每个到期的定时器调用 handler，回调中可以重新调度或取消定时器
+    public void advance(long now_nanos, Consumer<T> handler) {
+        long target = (now_nanos - start_nanos) / tick_nanos;
+        if (target <= current_tick) {
+            return;
+        }
+        // 停顿超过一圈时每个槽位只需要扫描一次
+        long from = Math.max(current_tick + 1, target - mask);
+        for (long tick = from; tick <= target; tick++) {
+            Timeout<T> head = slots[(int) (tick & mask)];
+            Timeout<T> timeout = head.next;
+            while (timeout != head) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadline_tick <= target) {
+                    unlink(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        current_tick = target;
+        // 先摘下所有到期的定时器再回调，回调中重新调度的定时器一定落在以后的 tick
+        try {
+            for (Timeout<T> timeout : expired) {
+                handler.accept(timeout.attachment);
+            }
+        } finally {
+            expired.clear();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package nbtcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// 客户端的续传日志，记录一次传输的参数和哪些块的回答已经写入输出文件，连接断开后据此只重传缺少的块
+// 文件格式：头部（魔数、版本、传输 ID、块大小种子、源文件大小和修改时间、Lmin、Lmax、块数、输出文件名）+ 位图
+// 位图每块 1 bit，块编号从 1 开始，在内存中修改，checkpoint 时只把变化的字节定位写回文件
+// 日志只在 checkpoint 时写入、不 fsync：能挺过连接断开和进程崩溃，掉电后可能回到更早的状态
+// 打开期间持有文件锁，同一个日志不会被两个传输同时使用；不是线程安全的
+public final class TransferJournal implements Closeable {
+
+    private static final int MAGIC = 0x4E42544A; // "NBTJ"
+    private static final short VERSION = 1;
+    private static final int FIXED_HEADER_LENGTH = 4 + 2 + 8 + 8 + 8 + 8 + 4 + 4 + 4 + 2;
+    private static final int MAX_NAME_LENGTH = 4096;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final long transfer_id;
+    private final long seed;
+    private final long file_size;
+    private final long file_mtime;
+    private final int lmin;
+    private final int lmax;
+    private final int num_blocks;
+    private final Path output;
+    private final int bitmap_offset; // 位图在日志文件中的位置
+    private final byte[] bitmap;
+    private int completed_count;
+    private int dirty_from = Integer.MAX_VALUE; // 还没有写回的位图字节范围 [dirty_from, dirty_to)
+    private int dirty_to;
+
+    private TransferJournal(Path path, FileChannel channel, FileLock lock, long transfer_id, long seed, long file_size, long file_mtime,
+                            int lmin, int lmax, int num_blocks, Path output, int bitmap_offset, byte[] bitmap) {
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+        this.transfer_id = transfer_id;
+        this.seed = seed;
+        this.file_size = file_size;
+        this.file_mtime = file_mtime;
+        this.lmin = lmin;
+        this.lmax = lmax;
+        this.num_blocks = num_blocks;
+        this.output = output;
+        this.bitmap_offset = bitmap_offset;
+        this.bitmap = bitmap;
+        for (byte b : bitmap) {
+            completed_count += Integer.bitCount(b & 0xFF);
+        }
+    }
+
+    // 新建日志，已有的同名日志被覆盖；日志正被其他传输使用时返回 null
+    // output 必须和日志位于同一目录，日志中只保存文件名
+    public static TransferJournal create(Path path, long transfer_id, long seed, long file_size, long file_mtime, int lmin, int lmax,
+                                         int num_blocks, Path output) throws IOException {
+        byte[] name = output.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("输出文件名过长：" + output);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // 先加锁再截断，不破坏其他传输正在使用的日志
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            byte[] bitmap = new byte[(num_blocks + 7) >>> 3];
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_LENGTH + name.length + bitmap.length);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putLong(transfer_id);
+            header.putLong(seed);
+            header.putLong(file_size);
+            header.putLong(file_mtime);
+            header.putInt(lmin);
+            header.putInt(lmax);
+            header.putInt(num_blocks);
+            header.putShort((short) name.length);
+            header.put(name);
+            header.put(bitmap);
+            header.flip();
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            return new TransferJournal(path, channel, lock, transfer_id, seed, file_size, file_mtime, lmin, lmax, num_blocks,
+                    output, FIXED_HEADER_LENGTH + name.length, bitmap);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // 打开已有的日志；日志不存在、内容不完整或正被其他传输使用时返回 null
+    public static TransferJournal open(Path path) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        TransferJournal journal = null;
+        try {
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                return null;
+            }
+            long size = channel.size();
+            if (size < FIXED_HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) == -1) {
+                    return null;
+                }
+            }
+            content.flip();
+            if (content.getInt() != MAGIC || content.getShort() != VERSION) {
+                return null;
+            }
+            long transfer_id = content.getLong();
+            long seed = content.getLong();
+            long file_size = content.getLong();
+            long file_mtime = content.getLong();
+            int lmin = content.getInt();
+            int lmax = content.getInt();
+            int num_blocks = content.getInt();
+            int name_length = content.getShort() & 0xFFFF;
+            if (lmin <= 0 || lmax < lmin || num_blocks < 0 || name_length == 0 || name_length > MAX_NAME_LENGTH
+                    || size != FIXED_HEADER_LENGTH + name_length + (((long) num_blocks + 7) >>> 3)) {
+                return null;
+            }
+            byte[] name = new byte[name_length];
+            content.get(name);
+            Path output_name = Paths.get(new String(name, StandardCharsets.UTF_8));
+            if (output_name.getNameCount() != 1 || output_name.isAbsolute() || output_name.toString().startsWith(".")) {
+                return null; // 只能是同一目录中的普通文件名
+            }
+            Path output = path.resolveSibling(output_name);
+            byte[] bitmap = new byte[content.remaining()];
+            content.get(bitmap);
+            if ((num_blocks & 7) != 0 && (bitmap[bitmap.length - 1] & 0xFF) >>> (num_blocks & 7) != 0) {
+                return null; // 位图末尾超出块数的位必须为 0
+            }
+            journal = new TransferJournal(path, channel, lock, transfer_id, seed, file_size, file_mtime, lmin, lmax, num_blocks,
+                    output, FIXED_HEADER_LENGTH + name_length, bitmap);
+            return journal;
+        } catch (OverlappingFileLockException | IllegalArgumentException e) {
+            return null;
+        } finally {
+            if (journal == null) {
+                channel.close();
+            }
+        }
+    }
+
+    // 同一进程中的其他传输持有锁时 tryLock 抛出 OverlappingFileLockException，同样视为正被使用
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    public boolean isCompleted(int block_no) {
+        int index = block_no - 1;
+        return (bitmap[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    // 记录块的回答已写入输出文件，checkpoint 后才会写回日志
+    public void markCompleted(int block_no) {
+        if (block_no < 1 || block_no > num_blocks) {
+            throw new IllegalArgumentException("块编号超出范围：" + block_no + "，本次传输共 " + num_blocks + " 块");
+        }
+        int index = block_no - 1;
+        int byte_index = index >>> 3;
+        int bit = 1 << (index & 7);
+        if ((bitmap[byte_index] & bit) != 0) {
+            return;
+        }
+        bitmap[byte_index] |= (byte) bit;
+        completed_count++;
+        dirty_from = Math.min(dirty_from, byte_index);
+        dirty_to = Math.max(dirty_to, byte_index + 1);
+    }
+
+    public int completedCount() {
+        return completed_count;
+    }
+
+    // 从块 1 开始连续完成的块数
+    public int completedPrefix() {
+        int full_bytes = 0;
+        while (full_bytes < bitmap.length && bitmap[full_bytes] == (byte) 0xFF) {
+            full_bytes++;
+        }
+        int prefix = full_bytes << 3;
+        if (full_bytes < bitmap.length) {
+            prefix += Integer.numberOfTrailingZeros(~bitmap[full_bytes] & 0xFF);
+        }
+        return Math.min(prefix, num_blocks);
+    }
+
+    // 把上次 checkpoint 之后变化的位图字节写回日志，调用前输出文件中对应的数据必须已经写出
+    public void checkpoint() throws IOException {
+        if (dirty_from >= dirty_to) {
+            return;
+        }
+        writeFully(channel, ByteBuffer.wrap(bitmap, dirty_from, dirty_to - dirty_from), bitmap_offset + dirty_from);
+        dirty_from = Integer.MAX_VALUE;
+        dirty_to = 0;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    public long transferId() {
+        return transfer_id;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public long fileSize() {
+        return file_size;
+    }
+
+    public long fileMtime() {
+        return file_mtime;
+    }
+
+    public int lmin() {
+        return lmin;
+    }
+
+    public int lmax() {
+        return lmax;
+    }
+
+    public int numBlocks() {
+        return num_blocks;
+    }
+
+    public Path output() {
+        return output;
+    }
+
+    // 释放文件锁并关闭日志，不写回未 checkpoint 的变化
+    @Override
+    public void close() throws IOException {
+        try {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // 传输完成后关闭并删除日志
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
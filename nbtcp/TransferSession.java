@@ -0,0 +1,109 @@
+package nbtcp;
+
+import java.net.ProtocolException;
+
+// 一次传输（一个 Initialization 报文）的服务器端状态，收到 Initialization 时按块数一次性分配
+// 用位图记录已收到和已回答的块，每块各占 1 bit，块编号从 1 开始
+// 不是线程安全的，只在连接所属的 reactor 线程中使用
+public final class TransferSession {
+
+    private final int num_blocks;
+    private final long transfer_id; // 客户端指定的传输 ID，0 表示没有
+    private final long[] received;
+    private final long[] answered;
+    private int received_count;
+    private int answered_count;
+    private final long started_nanos = System.nanoTime();
+
+    public TransferSession(int num_blocks) {
+        this(num_blocks, 0);
+    }
+
+    public TransferSession(int num_blocks, long transfer_id) {
+        if (num_blocks <= 0) {
+            throw new IllegalArgumentException("块数必须大于 0：" + num_blocks);
+        }
+        this.num_blocks = num_blocks;
+        this.transfer_id = transfer_id;
+        int words = (num_blocks + 63) >>> 6;
+        received = new long[words];
+        answered = new long[words];
+    }
+
+    // 记录收到一块，块编号超出范围或重复时抛出 ProtocolException
+    public void markReceived(int block_no) throws ProtocolException {
+        if (block_no < 1 || block_no > num_blocks) {
+            throw new ProtocolException("块编号超出范围：" + block_no + "，本次传输共 " + num_blocks + " 块");
+        }
+        int index = block_no - 1;
+        long bit = 1L << index;
+        if ((received[index >>> 6] & bit) != 0) {
+            throw new ProtocolException("重复的块编号：" + block_no);
+        }
+        received[index >>> 6] |= bit;
+        received_count++;
+    }
+
+    // 续传时记录客户端已经完成的块，这些块不会再收到，同时计为已收到和已回答
+    public void markCompleted(int block_no) throws ProtocolException {
+        markReceived(block_no);
+        markAnswered(block_no);
+    }
+
+    // 续传时记录块 1 到 last_block_no 都已完成，整字一次设置
+    public void markCompletedThrough(int last_block_no) throws ProtocolException {
+        if (last_block_no < 0 || last_block_no > num_blocks) {
+            throw new ProtocolException("已完成的块数超出范围：" + last_block_no + "，本次传输共 " + num_blocks + " 块");
+        }
+        if (received_count != 0) {
+            throw new IllegalStateException("只能在传输开始前设置已完成的前缀");
+        }
+        int full_words = last_block_no >>> 6;
+        for (int i = 0; i < full_words; i++) {
+            received[i] = -1L;
+            answered[i] = -1L;
+        }
+        int rest = last_block_no & 63;
+        if (rest != 0) {
+            received[full_words] = (1L << rest) - 1;
+            answered[full_words] = (1L << rest) - 1;
+        }
+        received_count = last_block_no;
+        answered_count = last_block_no;
+    }
+
+    // 记录一块的回答已完全写出，返回本次传输是否已全部完成
+    public boolean markAnswered(int block_no) {
+        int index = block_no - 1;
+        long bit = 1L << index;
+        if ((answered[index >>> 6] & bit) == 0) {
+            answered[index >>> 6] |= bit;
+            answered_count++;
+        }
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return answered_count == num_blocks;
+    }
+
+    public int numBlocks() {
+        return num_blocks;
+    }
+
+    public long transferId() {
+        return transfer_id;
+    }
+
+    public int receivedCount() {
+        return received_count;
+    }
+
+    public int answeredCount() {
+        return answered_count;
+    }
+
+    public long startedNanos() {
+        return started_nanos;
+    }
+}
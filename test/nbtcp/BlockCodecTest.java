@@ -0,0 +1,119 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// 块压缩编码的往返和损坏数据
+class BlockCodecTest {
+
+    private BlockCodec codec;
+
+    @AfterEach
+    void endCodec() {
+        if (codec != null) {
+            codec.end();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 6, 9})
+    void compressibleDataRoundTrips(int level) throws ProtocolException {
+        codec = new BlockCodec(level);
+        byte[] raw = "the quick brown fox jumps over the lazy dog\n".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer encoded = encode(raw);
+        assertFalse(BlockCodec.isStored(encoded, 0, encoded.limit()));
+        assertTrue(encoded.limit() < raw.length / 4);
+        assertEquals(raw.length, BlockCodec.rawLength(encoded, 0, encoded.limit()));
+        assertEquals(ByteBuffer.wrap(raw), decode(encoded, raw.length));
+    }
+
+    @Test
+    void incompressibleDataIsStored() throws ProtocolException {
+        codec = new BlockCodec(1);
+        byte[] raw = new byte[4096];
+        new Random(1).nextBytes(raw);
+
+        ByteBuffer encoded = encode(raw);
+        assertTrue(BlockCodec.isStored(encoded, 0, encoded.limit()));
+        assertEquals(BlockCodec.maxEncodedLength(raw.length), encoded.limit());
+        assertEquals(ByteBuffer.wrap(raw), decode(encoded, raw.length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void tinyBlocksRoundTrip(int length) throws ProtocolException {
+        codec = new BlockCodec(1);
+        byte[] raw = new byte[length];
+        for (int i = 0; i < length; i++) {
+            raw[i] = (byte) ('x' + i);
+        }
+        ByteBuffer encoded = encode(raw);
+        assertEquals(ByteBuffer.wrap(raw), decode(encoded, raw.length));
+    }
+
+    @Test
+    void codecIsReusableAcrossBlocks() throws ProtocolException {
+        codec = new BlockCodec(6);
+        for (int i = 0; i < 5; i++) {
+            byte[] raw = ("block " + i + " ").repeat(100 + i).getBytes(StandardCharsets.UTF_8);
+            assertEquals(ByteBuffer.wrap(raw), decode(encode(raw), raw.length));
+        }
+    }
+
+    @Test
+    void rejectsCorruptData() {
+        codec = new BlockCodec(1);
+        byte[] raw = "abcabcabc".repeat(100).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer encoded = encode(raw);
+        for (int i = BlockCodec.LENGTH_PREFIX; i < encoded.limit(); i++) {
+            encoded.put(i, (byte) 0xFF);
+        }
+        assertThrows(ProtocolException.class, () -> decode(encoded, raw.length));
+    }
+
+    @Test
+    void rejectsInvalidRawLength() {
+        ByteBuffer too_short = ByteBuffer.allocate(2);
+        assertThrows(ProtocolException.class, () -> BlockCodec.rawLength(too_short, 0, 2));
+
+        ByteBuffer negative = ByteBuffer.allocate(8).putInt(0, -1);
+        assertThrows(ProtocolException.class, () -> BlockCodec.rawLength(negative, 0, 8));
+
+        // 数据比原始长度还长，不可能是合法的编码
+        ByteBuffer longer = ByteBuffer.allocate(12).putInt(0, 4);
+        assertThrows(ProtocolException.class, () -> BlockCodec.rawLength(longer, 0, 12));
+    }
+
+    @Test
+    void rejectsInvalidLevel() {
+        assertThrows(IllegalArgumentException.class, () -> new BlockCodec(0));
+        assertThrows(IllegalArgumentException.class, () -> new BlockCodec(10));
+    }
+
+    private ByteBuffer encode(byte[] raw) {
+        ByteBuffer src = ByteBuffer.wrap(raw);
+        ByteBuffer dst = ByteBuffer.allocate(BlockCodec.maxEncodedLength(raw.length));
+        int written = codec.encode(src, 0, raw.length, dst);
+        assertEquals(dst.position(), written);
+        return dst.flip();
+    }
+
+    private ByteBuffer decode(ByteBuffer encoded, int raw_length) throws ProtocolException {
+        ByteBuffer dst = ByteBuffer.allocate(raw_length);
+        assertEquals(raw_length, codec.decode(encoded, 0, encoded.limit(), dst));
+        return dst.flip();
+    }
+}
@@ -0,0 +1,225 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// 帧解码器的拆包、粘包和非法报文
+class FrameDecoderTest {
+
+    private final BufferPool pool = new BufferPool(0, false);
+    private final FrameDecoder decoder = new FrameDecoder(pool, 64);
+    private final List<String> frames = new ArrayList<>();
+
+    // 把每个报文记成一行文本，方便比较
+    private final FrameDecoder.Handler handler = new FrameDecoder.Handler() {
+        @Override
+        public void onInitialization(int num_blocks) {
+            frames.add("init " + num_blocks);
+        }
+
+        @Override
+        public void onAgree() {
+            frames.add("agree");
+        }
+
+        @Override
+        public void onReverseRequest(int block_no, ByteBuffer buffer, int offset, int length) {
+            byte[] data = new byte[length];
+            buffer.get(offset, data);
+            frames.add("request " + block_no + " " + new String(data));
+        }
+
+        @Override
+        public void onExtendedInitialization(int num_blocks, int codec, long transfer_id) {
+            frames.add("extended " + num_blocks + " " + codec + " " + transfer_id);
+        }
+
+        @Override
+        public void onResume(long transfer_id, int num_blocks, int codec, int completed_prefix,
+                             ByteBuffer buffer, int bitmap_offset, int bitmap_length) {
+            byte[] bitmap = new byte[bitmap_length];
+            buffer.get(bitmap_offset, bitmap);
+            frames.add("resume " + transfer_id + " " + num_blocks + " " + codec + " " + completed_prefix + " "
+                    + HexFormat.of().formatHex(bitmap));
+        }
+    };
+
+    @AfterEach
+    void releaseDecoder() {
+        decoder.release();
+        assertEquals(0, pool.leasedCount());
+    }
+
+    @Test
+    void decodesSeveralFramesFromOneRead() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(128);
+        putInitialization(bytes, 3);
+        putRequest(bytes, 1, "abc");
+        putRequest(bytes, 2, "");
+        putRequest(bytes, 3, "hello");
+        bytes.putShort(FrameDecoder.TYPE_AGREE);
+        feed(bytes.flip(), bytes.remaining());
+
+        assertEquals(List.of("init 3", "request 1 abc", "request 2 ", "request 3 hello", "agree"), frames);
+        assertEquals(0, decoder.pendingBytes());
+    }
+
+    @Test
+    void waitsForHeaderSplitAcrossReads() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        putInitialization(bytes, 2);
+        putRequest(bytes, 1, "split");
+        putRequest(bytes, 2, "frames");
+        bytes.flip();
+        // 每次只读到 1 个字节，报文头和数据都被拆开
+        feed(bytes, 1);
+
+        assertEquals(List.of("init 2", "request 1 split", "request 2 frames"), frames);
+        assertEquals(0, decoder.pendingBytes());
+    }
+
+    @Test
+    void keepsIncompleteFrameUntilTheRestArrives() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        putRequest(bytes, 7, "0123456789");
+        bytes.flip();
+        feed(bytes.slice(0, FrameDecoder.REVERSE_HEADER_LENGTH + 4), Integer.MAX_VALUE);
+        assertEquals(List.of(), frames);
+        assertEquals(FrameDecoder.REVERSE_HEADER_LENGTH + 4, decoder.pendingBytes());
+
+        feed(bytes.slice(FrameDecoder.REVERSE_HEADER_LENGTH + 4, bytes.remaining() - FrameDecoder.REVERSE_HEADER_LENGTH - 4),
+                Integer.MAX_VALUE);
+        assertEquals(List.of("request 7 0123456789"), frames);
+    }
+
+    @Test
+    void growsBufferForFramesLargerThanTheInitialCapacity() throws IOException {
+        byte[] data = new byte[10_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(FrameDecoder.REVERSE_HEADER_LENGTH + data.length);
+        bytes.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(data.length).putInt(1).put(data);
+        feed(bytes.flip(), 1000);
+
+        assertEquals(List.of("request 1 " + new String(data)), frames);
+    }
+
+    @Test
+    void decodesExtendedInitialization() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        bytes.putShort(FrameDecoder.TYPE_EXTENDED_INITIALIZATION).putInt(FrameDecoder.EXTENDED_INITIALIZATION_BODY_LENGTH)
+                .putInt(5).put((byte) BlockCodec.DEFLATE);
+        // 报文体末尾多出的字段留给以后的选项，解码时忽略
+        bytes.putShort(FrameDecoder.TYPE_EXTENDED_INITIALIZATION).putInt(FrameDecoder.EXTENDED_INITIALIZATION_BODY_LENGTH + 3)
+                .putInt(6).put((byte) BlockCodec.NONE).put(new byte[3]);
+        feed(bytes.flip(), 3);
+
+        assertEquals(List.of("extended 5 1 0", "extended 6 0 0"), frames);
+    }
+
+    @Test
+    void decodesExtendedInitializationWithTransferId() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        bytes.putShort(FrameDecoder.TYPE_EXTENDED_INITIALIZATION)
+                .putInt(FrameDecoder.EXTENDED_INITIALIZATION_BODY_LENGTH + FrameDecoder.TRANSFER_ID_LENGTH)
+                .putInt(6).put((byte) BlockCodec.NONE).putLong(42);
+        feed(bytes.flip(), 3);
+
+        assertEquals(List.of("extended 6 0 42"), frames);
+    }
+
+    @Test
+    void decodesResumeWithBitmap() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        bytes.putShort(FrameDecoder.TYPE_RESUME).putInt(FrameDecoder.RESUME_BODY_LENGTH + 2)
+                .putLong(9).putInt(100).put((byte) BlockCodec.NONE).putInt(40).put((byte) 0x05).put((byte) 0x80);
+        feed(bytes.flip(), 5);
+
+        assertEquals(List.of("resume 9 100 0 40 0580"), frames);
+    }
+
+    @Test
+    void rejectsOversizedLength() {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(FrameDecoder.MAX_BLOCK_LENGTH + 1).putInt(1);
+        assertThrows(ProtocolException.class, () -> feed(bytes.flip(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsNegativeLength() {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(-1).putInt(1);
+        assertThrows(ProtocolException.class, () -> feed(bytes.flip(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsTooShortExtendedBody() {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putShort(FrameDecoder.TYPE_EXTENDED_INITIALIZATION).putInt(FrameDecoder.EXTENDED_INITIALIZATION_BODY_LENGTH - 1);
+        assertThrows(ProtocolException.class, () -> feed(bytes.flip(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsUnknownType() {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putShort((short) 99).putInt(0);
+        assertThrows(ProtocolException.class, () -> feed(bytes.flip(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    void rejectsFrameTheHandlerDoesNotExpect() {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putShort(FrameDecoder.TYPE_REVERSE_ANSWER).putInt(0).putInt(1);
+        assertThrows(ProtocolException.class, () -> feed(bytes.flip(), Integer.MAX_VALUE));
+    }
+
+    // 每次 readFrom 最多读到 chunk 个字节，读完一次就解码一次，模拟 TCP 拆包
+    private void feed(ByteBuffer bytes, int chunk) throws IOException {
+        ReadableByteChannel channel = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!bytes.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(Math.min(chunk, bytes.remaining()), dst.remaining());
+                dst.put(bytes.slice(bytes.position(), n));
+                bytes.position(bytes.position() + n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        while (bytes.hasRemaining()) {
+            decoder.readFrom(channel);
+            decoder.decode(handler);
+        }
+    }
+
+    private static void putInitialization(ByteBuffer bytes, int num_blocks) {
+        bytes.putShort(FrameDecoder.TYPE_INITIALIZATION).putInt(num_blocks);
+    }
+
+    private static void putRequest(ByteBuffer bytes, int block_no, String data) {
+        byte[] payload = data.getBytes();
+        bytes.putShort(FrameDecoder.TYPE_REVERSE_REQUEST).putInt(payload.length).putInt(block_no).put(payload);
+    }
+}
@@ -0,0 +1,140 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// 输出文件的定位写和内存映射写：写入顺序、块是否相邻、块是否超过暂存缓冲区都不影响文件内容
+class OutputWriterTest {
+
+    private static final int BATCH_LENGTH = 1024 * 1024; // 与 OutputWriter 的暂存缓冲区大小相同
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void adjacentBlocksAreWrittenInPlace(boolean mapped) throws IOException {
+        byte[] content = random(1, 100_000);
+        Path output = dir.resolve("out");
+        try (OutputWriter writer = new OutputWriter(output, content.length, false, mapped)) {
+            // 按回答到达的顺序从文件开头依次写，块大小不一
+            int position = 0;
+            Random sizes = new Random(2);
+            while (position < content.length) {
+                int length = Math.min(content.length - position, 1 + sizes.nextInt(5000));
+                writer.write(position, ByteBuffer.wrap(content, position, length));
+                position += length;
+            }
+        }
+        assertArrayEquals(content, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void nonAdjacentBlocksLeaveZeroGaps(boolean mapped) throws IOException {
+        byte[] content = random(3, 10_000);
+        byte[] expected = new byte[content.length];
+        Path output = dir.resolve("out");
+        try (OutputWriter writer = new OutputWriter(output, content.length, false, mapped)) {
+            // 从后往前写，中间跳过一些块
+            for (int position = 9_000; position >= 0; position -= 1_000) {
+                if (position % 3_000 == 0) {
+                    continue;
+                }
+                writer.write(position, ByteBuffer.wrap(content, position, 700));
+                System.arraycopy(content, position, expected, position, 700);
+            }
+        }
+        assertArrayEquals(expected, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void blocksLargerThanTheBatchAreWrittenDirectly(boolean mapped) throws IOException {
+        byte[] content = random(4, 3 * BATCH_LENGTH);
+        Path output = dir.resolve("out");
+        try (OutputWriter writer = new OutputWriter(output, content.length, false, mapped)) {
+            // 小块暂存后紧接着一个超过暂存缓冲区的块，暂存的数据要先写出
+            writer.write(0, ByteBuffer.wrap(content, 0, 100));
+            writer.write(100, ByteBuffer.wrap(content, 100, BATCH_LENGTH + 500));
+            writer.write(BATCH_LENGTH + 600, ByteBuffer.wrap(content, BATCH_LENGTH + 600, 1000));
+            // 刚好填满暂存缓冲区剩余空间的块
+            writer.write(BATCH_LENGTH + 1600, ByteBuffer.wrap(content, BATCH_LENGTH + 1600, BATCH_LENGTH - 1000));
+            writer.write(2 * BATCH_LENGTH + 600, ByteBuffer.wrap(content, 2 * BATCH_LENGTH + 600, BATCH_LENGTH - 600));
+        }
+        assertArrayEquals(content, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void flushMakesWrittenBlocksVisible(boolean mapped) throws IOException {
+        byte[] content = random(5, 4096);
+        Path output = dir.resolve("out");
+        try (OutputWriter writer = new OutputWriter(output, content.length, false, mapped)) {
+            writer.write(0, ByteBuffer.wrap(content, 0, 2048));
+            writer.flush();
+            byte[] expected = Arrays.copyOf(Arrays.copyOf(content, 2048), content.length);
+            assertArrayEquals(expected, Files.readAllBytes(output));
+            writer.write(2048, ByteBuffer.wrap(content, 2048, 2048));
+        }
+        assertArrayEquals(content, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void keepsExistingBlocksWhenResuming(boolean mapped) throws IOException {
+        byte[] content = random(6, 8192);
+        Path output = dir.resolve("out");
+        // 上次传输写完了前一半，文件已经是完整大小
+        byte[] previous = Arrays.copyOf(Arrays.copyOf(content, 4096), content.length);
+        Files.write(output, previous);
+        try (OutputWriter writer = new OutputWriter(output, content.length, true, mapped)) {
+            writer.write(4096, ByteBuffer.wrap(content, 4096, 4096));
+        }
+        assertArrayEquals(content, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void truncatesExistingFileWhenNotResuming(boolean mapped) throws IOException {
+        Path output = dir.resolve("out");
+        Files.write(output, random(7, 8192));
+        try (OutputWriter writer = new OutputWriter(output, 1000, false, mapped)) {
+            writer.write(0, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        }
+        byte[] expected = new byte[1000];
+        expected[0] = 1;
+        expected[1] = 2;
+        expected[2] = 3;
+        assertArrayEquals(expected, Files.readAllBytes(output));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void rejectsWritesPastTheEnd(boolean mapped) throws IOException {
+        Path output = dir.resolve("out");
+        try (OutputWriter writer = new OutputWriter(output, 100, false, mapped)) {
+            assertThrows(IllegalArgumentException.class, () -> writer.write(90, ByteBuffer.allocate(11)));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(-1, ByteBuffer.allocate(1)));
+        }
+        assertEquals(100, Files.size(output));
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
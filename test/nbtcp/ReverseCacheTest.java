@@ -0,0 +1,132 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// 反转结果缓存的准入、钉住、淘汰和哈希碰撞，以及借出的缓冲区都能归还给池
+class ReverseCacheTest {
+
+    private static final int LENGTH = 300; // 池中最小的缓冲区是 1 KiB，每个条目占 1 KiB
+
+    private final BufferPool pool = new BufferPool(0, true);
+    private final ReverseCache cache = new ReverseCache(pool, 2 * 1024); // 最多容纳 2 个条目
+
+    @AfterEach
+    void checkPool() {
+        assertEquals(0, pool.invalidReleaseCount());
+    }
+
+    @Test
+    void admitsBlockOnSecondSighting() {
+        ByteBuffer block = block(1, LENGTH);
+        long hash = ReverseCache.hash(block, 0, LENGTH);
+
+        cache.admit(hash, reversed(block), 0, LENGTH);
+        assertNull(cache.lookup(hash, block, 0, LENGTH));
+        assertEquals(0, pool.leasedCount());
+
+        cache.admit(hash, reversed(block), 0, LENGTH);
+        ReverseCache.Entry entry = cache.lookup(hash, block, 0, LENGTH);
+        assertNotNull(entry);
+        assertEquals(LENGTH, entry.length());
+        assertEquals(reversed(block), entry.view());
+        cache.release(entry);
+        assertEquals(1, pool.leasedCount());
+        assertEquals(1024, cache.bytes());
+    }
+
+    @Test
+    void evictedEntryIsFreedOnlyAfterLastRelease() {
+        ByteBuffer a = block(1, LENGTH);
+        ByteBuffer b = block(2, LENGTH);
+        ByteBuffer c = block(3, LENGTH);
+        admitTwice(a);
+        // 钉住两次，模拟同一份数据在两个连接的发送队列中
+        ReverseCache.Entry first = cache.lookup(ReverseCache.hash(a, 0, LENGTH), a, 0, LENGTH);
+        ReverseCache.Entry second = cache.lookup(ReverseCache.hash(a, 0, LENGTH), a, 0, LENGTH);
+        assertNotNull(first);
+        assertNotNull(second);
+
+        admitTwice(b);
+        admitTwice(c); // 超出容量，最久没有访问的 a 被淘汰
+        assertNull(cache.lookup(ReverseCache.hash(a, 0, LENGTH), a, 0, LENGTH));
+        // a 仍在发送，缓冲区不能归还，数据也不能被改写；它的内存仍计入缓存，所以 b 也被淘汰
+        assertNull(cache.lookup(ReverseCache.hash(b, 0, LENGTH), b, 0, LENGTH));
+        assertEquals(2, pool.leasedCount());
+        assertEquals(2 * 1024, cache.bytes());
+        assertEquals(reversed(a), first.view());
+
+        cache.release(first);
+        assertEquals(2, pool.leasedCount());
+        cache.release(second);
+        assertEquals(1, pool.leasedCount());
+        assertEquals(1024, cache.bytes());
+    }
+
+    @Test
+    void unpinnedEntriesAreFreedOnEviction() {
+        admitTwice(block(1, LENGTH));
+        admitTwice(block(2, LENGTH));
+        admitTwice(block(3, LENGTH));
+        admitTwice(block(4, LENGTH));
+
+        assertEquals(2, pool.leasedCount());
+        assertEquals(2 * 1024, cache.bytes());
+    }
+
+    @Test
+    void hashCollisionReplacesEntry() {
+        long hash = 42; // 两个内容不同的块使用同一个哈希
+        ByteBuffer a = block(1, LENGTH);
+        ByteBuffer b = block(2, LENGTH);
+        ByteBuffer shorter = block(1, LENGTH - 1);
+        cache.admit(hash, reversed(a), 0, LENGTH);
+        cache.admit(hash, reversed(a), 0, LENGTH);
+        ReverseCache.Entry pinned = cache.lookup(hash, a, 0, LENGTH);
+        assertNotNull(pinned);
+
+        // 哈希相同、内容或长度不同按未命中处理
+        assertNull(cache.lookup(hash, b, 0, LENGTH));
+        assertNull(cache.lookup(hash, shorter, 0, LENGTH - 1));
+
+        // 门卫已经见过这个哈希，b 直接替换 a；a 正被钉住，释放后才归还
+        cache.admit(hash, reversed(b), 0, LENGTH);
+        assertEquals(2, pool.leasedCount());
+        assertNull(cache.lookup(hash, a, 0, LENGTH));
+        assertEquals(reversed(a), pinned.view());
+        cache.release(pinned);
+        assertEquals(1, pool.leasedCount());
+        assertEquals(1024, cache.bytes());
+
+        ReverseCache.Entry entry = cache.lookup(hash, b, 0, LENGTH);
+        assertNotNull(entry);
+        assertEquals(reversed(b), entry.view());
+        cache.release(entry);
+        assertEquals(1, pool.leasedCount());
+    }
+
+    private void admitTwice(ByteBuffer block) {
+        long hash = ReverseCache.hash(block, 0, block.limit());
+        cache.admit(hash, reversed(block), 0, block.limit());
+        cache.admit(hash, reversed(block), 0, block.limit());
+    }
+
+    private static ByteBuffer block(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    private static ByteBuffer reversed(ByteBuffer block) {
+        ByteBuffer reversed = ByteBuffer.allocate(block.limit());
+        ReverseKernel.reverseScalar(block, 0, block.limit(), reversed);
+        return reversed.flip();
+    }
+}
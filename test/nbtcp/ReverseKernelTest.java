@@ -0,0 +1,77 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// 按 8 字节处理的反转与逐字节反转结果相同，覆盖不足 8 字节的尾部和两个缓冲区字节序的所有组合
+class ReverseKernelTest {
+
+    private static final int MAX_LENGTH = 40;
+    private static final int OFFSET = 3; // 不从 0 开始，getLong / putLong 不对齐
+
+    @ParameterizedTest
+    @CsvSource({
+            "false, false, false",
+            "false, true, false",
+            "true, false, false",
+            "true, true, false",
+            "false, false, true",
+            "false, true, true",
+            "true, false, true",
+            "true, true, true",
+    })
+    void reverseMatchesScalarForAllByteOrders(boolean src_little_endian, boolean dst_little_endian, boolean direct) {
+        for (int length = 0; length < MAX_LENGTH; length++) {
+            ByteBuffer src = allocate(OFFSET + length + OFFSET, src_little_endian, direct);
+            fill(src);
+            ByteBuffer dst = allocate(OFFSET + length + OFFSET, dst_little_endian, direct);
+            ByteBuffer expected = allocate(OFFSET + length + OFFSET, dst_little_endian, false);
+            dst.position(OFFSET);
+            expected.position(OFFSET);
+
+            ReverseKernel.reverse(src, OFFSET, length, dst);
+            ReverseKernel.reverseScalar(src, OFFSET, length, expected);
+
+            assertEquals(OFFSET + length, dst.position(), "length " + length);
+            assertEquals(0, src.position(), "length " + length);
+            // 目标区域前后的字节也不能被改写
+            assertEquals(expected.clear(), dst.clear(), "length " + length);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void reverseInPlaceMatchesScalar(boolean little_endian) {
+        for (int length = 0; length < MAX_LENGTH; length++) {
+            ByteBuffer buffer = allocate(OFFSET + length + OFFSET, little_endian, false);
+            fill(buffer);
+            ByteBuffer expected = ByteBuffer.allocate(buffer.capacity());
+            expected.put(buffer.slice(0, OFFSET));
+            ReverseKernel.reverseScalar(buffer, OFFSET, length, expected);
+            expected.put(buffer.slice(OFFSET + length, OFFSET));
+
+            ReverseKernel.reverseInPlace(buffer, OFFSET, length);
+
+            assertEquals(0, buffer.position(), "length " + length);
+            assertEquals(expected.flip(), buffer, "length " + length);
+        }
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean little_endian, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return buffer.order(little_endian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    // 每个字节的值都不同，位置错了就能发现
+    private static void fill(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (i + 1));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// 定时器的到期、取消、重新调度和跨圈的截止时间
+class TimingWheelTest {
+
+    private static final long TICK = 1_000_000; // 1 ms
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, 0);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    void firesOnlyExpiredTimers() {
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        TimingWheel.Timeout<String> b = new TimingWheel.Timeout<>("b");
+        wheel.schedule(a, 3 * TICK);
+        wheel.schedule(b, 5 * TICK);
+        assertEquals(2, wheel.size());
+
+        wheel.advance(4 * TICK, fired::add);
+        assertEquals(List.of("a"), fired);
+        assertFalse(a.isScheduled());
+        assertTrue(b.isScheduled());
+
+        wheel.advance(5 * TICK, fired::add);
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesBeyondOneRoundWaitForTheirRound() {
+        TimingWheel.Timeout<String> far = new TimingWheel.Timeout<>("far");
+        wheel.schedule(far, 20 * TICK); // 8 个槽位，要转两圈多
+        wheel.advance(12 * TICK, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advance(20 * TICK, fired::add);
+        assertEquals(List.of("far"), fired);
+    }
+
+    @Test
+    void cancelledAndRescheduledTimers() {
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        TimingWheel.Timeout<String> b = new TimingWheel.Timeout<>("b");
+        wheel.schedule(a, 2 * TICK);
+        wheel.schedule(b, 2 * TICK);
+        wheel.cancel(a);
+        wheel.schedule(b, 6 * TICK); // 重新调度会先从原来的槽位摘下
+
+        wheel.advance(3 * TICK, fired::add);
+        assertEquals(List.of(), fired);
+        assertEquals(1, wheel.size());
+        wheel.advance(6 * TICK, fired::add);
+        assertEquals(List.of("b"), fired);
+    }
+
+    @Test
+    void handlerCanRescheduleTheExpiredTimer() {
+        TimingWheel.Timeout<String> a = new TimingWheel.Timeout<>("a");
+        wheel.schedule(a, TICK);
+        wheel.advance(TICK, name -> {
+            fired.add(name);
+            wheel.schedule(a, 4 * TICK);
+        });
+        assertEquals(List.of("a"), fired);
+        assertTrue(a.isScheduled());
+        wheel.advance(4 * TICK, fired::add);
+        assertEquals(List.of("a", "a"), fired);
+    }
+
+    @Test
+    void longPauseFiresEverythingOnce() {
+        for (int i = 1; i <= 30; i++) {
+            wheel.schedule(new TimingWheel.Timeout<>("t" + i), i * TICK);
+        }
+        wheel.advance(1000 * TICK, fired::add);
+        assertEquals(30, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void millisUntilNextTick() {
+        assertEquals(0, wheel.millisUntilNextTick(0)); // 没有定时器时无限等待
+        wheel.schedule(new TimingWheel.Timeout<>("a"), 5 * TICK);
+        assertEquals(1, wheel.millisUntilNextTick(TICK / 2));
+    }
+}
@@ -0,0 +1,129 @@
+package nbtcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// 续传日志的写回、重新打开和损坏的日志
+class TransferJournalTest {
+
+    private static final int NUM_BLOCKS = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void checkpointedBlocksSurviveReopen() throws IOException {
+        Path path = directory.resolve("t.journal");
+        try (TransferJournal journal = create(path)) {
+            for (int block_no = 1; block_no <= 20; block_no++) {
+                journal.markCompleted(block_no);
+            }
+            journal.markCompleted(30);
+            journal.markCompleted(NUM_BLOCKS);
+            journal.markCompleted(30); // 重复标记不重复计数
+            journal.checkpoint();
+        }
+
+        try (TransferJournal journal = TransferJournal.open(path)) {
+            assertNotNull(journal);
+            assertEquals(77, journal.transferId());
+            assertEquals(1234, journal.seed());
+            assertEquals(5000, journal.fileSize());
+            assertEquals(99, journal.fileMtime());
+            assertEquals(10, journal.lmin());
+            assertEquals(90, journal.lmax());
+            assertEquals(NUM_BLOCKS, journal.numBlocks());
+            assertEquals(directory.resolve("out.txt"), journal.output());
+            assertEquals(22, journal.completedCount());
+            assertEquals(20, journal.completedPrefix());
+            assertTrue(journal.isCompleted(20));
+            assertFalse(journal.isCompleted(21));
+            assertTrue(journal.isCompleted(30));
+            assertTrue(journal.isCompleted(NUM_BLOCKS));
+        }
+    }
+
+    @Test
+    void changesAfterTheLastCheckpointAreNotWritten() throws IOException {
+        Path path = directory.resolve("t.journal");
+        try (TransferJournal journal = create(path)) {
+            journal.markCompleted(1);
+            journal.checkpoint();
+            journal.markCompleted(2);
+        }
+        try (TransferJournal journal = TransferJournal.open(path)) {
+            assertEquals(1, journal.completedCount());
+            assertFalse(journal.isCompleted(2));
+        }
+    }
+
+    @Test
+    void completedPrefixCoversEveryBlock() throws IOException {
+        try (TransferJournal journal = create(directory.resolve("t.journal"))) {
+            for (int block_no = 1; block_no <= NUM_BLOCKS; block_no++) {
+                journal.markCompleted(block_no);
+            }
+            assertEquals(NUM_BLOCKS, journal.completedPrefix());
+            assertEquals(NUM_BLOCKS, journal.completedCount());
+        }
+    }
+
+    @Test
+    void lockedJournalCannotBeOpenedTwice() throws IOException {
+        Path path = directory.resolve("t.journal");
+        try (TransferJournal journal = create(path)) {
+            assertNull(TransferJournal.open(path));
+            assertNull(TransferJournal.create(path, 1, 1, 1, 1, 1, 1, 1, directory.resolve("other.txt")));
+        }
+        try (TransferJournal journal = TransferJournal.open(path)) {
+            assertNotNull(journal);
+        }
+    }
+
+    @Test
+    void missingOrCorruptJournalIsIgnored() throws IOException {
+        assertNull(TransferJournal.open(directory.resolve("missing.journal")));
+
+        Path path = directory.resolve("t.journal");
+        create(path).close();
+        byte[] content = Files.readAllBytes(path);
+
+        // 截断的日志
+        Files.write(path, Arrays.copyOf(content, content.length - 1));
+        assertNull(TransferJournal.open(path));
+
+        // 魔数不对
+        byte[] bad_magic = content.clone();
+        bad_magic[0] ^= 1;
+        Files.write(path, bad_magic);
+        assertNull(TransferJournal.open(path));
+
+        // 位图末尾超出块数的位被置位
+        byte[] stray_bit = content.clone();
+        stray_bit[stray_bit.length - 1] = (byte) 0x80;
+        Files.write(path, stray_bit);
+        assertNull(TransferJournal.open(path));
+    }
+
+    @Test
+    void deleteRemovesTheJournal() throws IOException {
+        Path path = directory.resolve("t.journal");
+        create(path).delete();
+        assertFalse(Files.exists(path));
+    }
+
+    private TransferJournal create(Path path) throws IOException {
+        return TransferJournal.create(path, 77, 1234, 5000, 99, 10, 90, NUM_BLOCKS, directory.resolve("out.txt"));
+    }
+}